@@ -0,0 +1,35 @@
+package com.google.devrel.training.conference.benchmark;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.service.OfyService;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Registers an App Engine environment on each benchmark thread, as the tests do. Keys need it
+ * for the application id, and Objectify for its session. The benchmarks make no datastore calls.
+ */
+@State(Scope.Thread)
+public class AppEngineState {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        helper.setUp();
+        // Registers the entities.
+        OfyService.ofy();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        OfyService.ofy().clear();
+        helper.tearDown();
+    }
+}
@@ -0,0 +1,26 @@
+package com.google.devrel.training.conference.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line options, always with the GC profiler, so every
+ * result comes with the bytes allocated per operation (gc.alloc.rate.norm) next to its time.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar                       # all the benchmarks
+ * java -jar target/benchmarks.jar ProfileBenchmark      # the ones matching a regexp
+ * java -jar target/benchmarks.jar -rf json -rff base.json
+ * </pre>
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
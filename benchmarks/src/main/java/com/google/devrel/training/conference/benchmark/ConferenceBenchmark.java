@@ -0,0 +1,71 @@
+package com.google.devrel.training.conference.benchmark;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the Conference methods run by every request that creates, updates or returns
+ * a Conference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConferenceBenchmark {
+
+    private ConferenceForm conferenceForm;
+
+    private Conference conference;
+
+    @Setup
+    public void setUp(AppEngineState appEngine) {
+        conferenceForm = new ConferenceForm("Google I/O", "The developer conference",
+                Arrays.asList("Google", "Cloud", "Platform"), "San Francisco",
+                new Date(1427241600000L), new Date(1427328000000L), 5000);
+        conference = new Conference(1L, "123456789", conferenceForm);
+    }
+
+    @Benchmark
+    public Conference updateWithConferenceForm() {
+        conference.updateWithConferenceForm(conferenceForm);
+        return conference;
+    }
+
+    @Benchmark
+    public String toStringBenchmark() {
+        return conference.toString();
+    }
+
+    /**
+     * The websafe key is computed once per Conference, then returned from its field.
+     */
+    @Benchmark
+    public String getWebsafeKey() {
+        return conference.getWebsafeKey();
+    }
+
+    /**
+     * The cost of the first getWebsafeKey() on a Conference, e.g. one just loaded.
+     */
+    @Benchmark
+    public String encodeWebsafeKey() {
+        return conference.getKey().getString();
+    }
+}
@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.benchmark;
+
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Field;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Filter;
+import com.google.devrel.training.conference.form.ConferenceQueryForm.Operator;
+import com.googlecode.objectify.cmd.Query;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for building the Objectify query of queryConferences, without running it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConferenceQueryFormBenchmark {
+
+    private ConferenceQueryForm noFilters;
+
+    private ConferenceQueryForm equalityFilters;
+
+    private ConferenceQueryForm inequalityFilter;
+
+    @Setup
+    public void setUp(AppEngineState appEngine) {
+        noFilters = new ConferenceQueryForm();
+        equalityFilters = new ConferenceQueryForm()
+                .filter(new Filter(Field.CITY, Operator.EQ, "London"))
+                .filter(new Filter(Field.TOPIC, Operator.EQ, "Cloud"));
+        inequalityFilter = new ConferenceQueryForm()
+                .filter(new Filter(Field.MAX_ATTENDEES, Operator.GT, "10"))
+                .filter(new Filter(Field.MONTH, Operator.EQ, "6"));
+    }
+
+    @Benchmark
+    public Query<Conference> noFilters() throws BadRequestException {
+        return noFilters.getQuery();
+    }
+
+    @Benchmark
+    public Query<Conference> equalityFilters() throws BadRequestException {
+        return equalityFilters.getQuery();
+    }
+
+    @Benchmark
+    public Query<Conference> inequalityFilter() throws BadRequestException {
+        return inequalityFilter.getQuery();
+    }
+}
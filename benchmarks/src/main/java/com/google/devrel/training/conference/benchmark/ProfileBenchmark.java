@@ -0,0 +1,121 @@
+package com.google.devrel.training.conference.benchmark;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.service.Attendance;
+import com.googlecode.objectify.Key;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the in-memory part of the attendance checks, for a user registered to
+ * attend a given number of conferences. Registrations are Registration entities, and the ones
+ * saved before them are still in a list property of the Profile until they are migrated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProfileBenchmark {
+
+    private static final String USER_ID = "123456789";
+
+    @Param({"10", "100", "1000"})
+    private int registrations;
+
+    private List<String> websafeConferenceKeys;
+
+    private List<Key<Registration>> registrationKeys;
+
+    private Map<Key<Registration>, Registration> loadedRegistrations;
+
+    private Entity legacyProfileEntity;
+
+    private Profile legacyProfile;
+
+    private Profile profile;
+
+    private String missingConferenceKey;
+
+    @Setup
+    public void setUp(AppEngineState appEngine) {
+        websafeConferenceKeys = new ArrayList<>(registrations);
+        registrationKeys = new ArrayList<>(registrations);
+        loadedRegistrations = new HashMap<>();
+        for (int i = 1; i <= registrations; i++) {
+            String websafeConferenceKey = Key.create(Conference.class, i).getString();
+            websafeConferenceKeys.add(websafeConferenceKey);
+            Key<Registration> key = Registration.createKey(USER_ID, websafeConferenceKey);
+            registrationKeys.add(key);
+            loadedRegistrations.put(key, new Registration(USER_ID, websafeConferenceKey));
+        }
+        missingConferenceKey = Key.create(Conference.class, registrations + 1).getString();
+        profile = new Profile(USER_ID, "Your Name Here", "example@gmail.com", null);
+
+        legacyProfileEntity = ofy().save().toEntity(profile);
+        legacyProfileEntity.setProperty("conferenceKeysToAttend", websafeConferenceKeys);
+        legacyProfile = ofy().load().fromEntity(legacyProfileEntity);
+    }
+
+    /**
+     * Building the registration keys of a batch get or a batch put, e.g. in registerAll().
+     */
+    @Benchmark
+    public List<Key<Registration>> createRegistrationKeys() {
+        List<Key<Registration>> keys = new ArrayList<>(registrations);
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            keys.add(Registration.createKey(USER_ID, websafeConferenceKey));
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public boolean isAttending() {
+        return Attendance.isAttending(profile, missingConferenceKey, loadedRegistrations);
+    }
+
+    @Benchmark
+    public boolean isAttendingLegacy() {
+        return Attendance.isAttending(legacyProfile, missingConferenceKey, loadedRegistrations);
+    }
+
+    /**
+     * Merging the registrations of getConferencesToAttend, with the keys already fetched.
+     */
+    @Benchmark
+    public Set<String> getConferenceKeysToAttend() {
+        return Attendance.getConferenceKeysToAttend(profile, registrationKeys.iterator());
+    }
+
+    /**
+     * Loading a Profile that still holds its registrations, the cost unregistering and the
+     * migration pay before removing one.
+     */
+    @Benchmark
+    public Profile loadLegacyProfile() {
+        return ofy().load().fromEntity(legacyProfileEntity);
+    }
+}
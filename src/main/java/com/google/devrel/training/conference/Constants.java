@@ -14,4 +14,8 @@ public class Constants {
     public static final String API_EXPLORER_CLIENT_ID = Constant.API_EXPLORER_CLIENT_ID;
 
     public static final String MEMCACHE_ANNOUNCEMENTS_KEY = "RECENT_ANNOUNCEMENTS";
+    public static final String MEMCACHE_ANNOUNCEMENTS_VERSION_KEY = "RECENT_ANNOUNCEMENTS_VERSION";
+    public static final String MEMCACHE_SEATS_AVAILABLE_PREFIX = "SEATS_AVAILABLE_";
+    public static final String MEMCACHE_QUERY_PREFIX = "CONFERENCE_QUERY_";
+    public static final String MEMCACHE_QUERY_GENERATION_KEY = "CONFERENCE_QUERY_GENERATION";
 }
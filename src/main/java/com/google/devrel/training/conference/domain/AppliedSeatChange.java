@@ -0,0 +1,70 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * AppliedSeatChange class records how a SeatChange was applied to the Registration of an
+ * attendee, so running the same change again has no further effect.
+ *
+ * It is a child of the attendee's Profile, saved in the transaction that updates the
+ * Registration. It is kept for a week after that, and then purged by a cron job.
+ */
+@Entity
+public class AppliedSeatChange {
+
+    /**
+     * The websafe key of the SeatChange, as the name for the datastore key.
+     */
+    @Id
+    private String seatChangeKey;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * Whether the Registration already was as the change asked, so its seat must be put back.
+     */
+    private boolean reverted;
+
+    @Index
+    private Date appliedAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private AppliedSeatChange() {}
+
+    public AppliedSeatChange(final Key<Profile> profileKey,
+                             final Key<SeatChange> seatChangeKey, final boolean reverted) {
+        this.profileKey = profileKey;
+        this.seatChangeKey = seatChangeKey.getString();
+        this.reverted = reverted;
+        this.appliedAt = new Date();
+    }
+
+    /**
+     * Returns the key of the record of a SeatChange applied for an attendee.
+     *
+     * @param profileKey the key of the attendee's Profile.
+     * @param seatChangeKey the key of the SeatChange.
+     * @return the key of the record.
+     */
+    public static Key<AppliedSeatChange> createKey(Key<Profile> profileKey,
+                                                   Key<SeatChange> seatChangeKey) {
+        return Key.create(profileKey, AppliedSeatChange.class, seatChangeKey.getString());
+    }
+
+    public boolean isReverted() {
+        return reverted;
+    }
+
+    public Date getAppliedAt() {
+        return appliedAt;
+    }
+}
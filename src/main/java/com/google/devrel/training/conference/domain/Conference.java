@@ -1,7 +1,5 @@
 package com.google.devrel.training.conference.domain;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
 import com.googlecode.objectify.annotation.*;
 import com.googlecode.objectify.condition.IfNotDefault;
 
@@ -10,6 +8,9 @@ import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.EntityCache;
+import com.google.devrel.training.conference.service.OfyService;
+import com.google.devrel.training.conference.service.SeatCounter;
 import com.googlecode.objectify.Key;
 
 import java.util.Calendar;
@@ -59,6 +60,13 @@ public class Conference {
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
     private String organizerUserId;
 
+    /**
+     * A snapshot of the display name of the organizer, so reading a Conference needs no Profile
+     * lookup. It is rewritten in the background when the organizer changes his/her name.
+     */
+    @Index
+    private String organizerDisplayName;
+
     /**
      * Topics related to this conference.
      */
@@ -100,6 +108,35 @@ public class Conference {
     @Index
     private int seatsAvailable;
 
+    /**
+     * Number of SeatShard entities holding the seats of this conference, 0 when not sharded.
+     *
+     * For a sharded conference, seatsAvailable is only a snapshot kept for queries.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private int seatShardCount;
+
+    /**
+     * Whether registrations go through the reservation queue instead of a transaction each,
+     * for conferences expecting a rush of registrations when they open.
+     */
+    private boolean reservationQueue;
+
+    /**
+     * The cached sum of the seat shards, attached when it is looked up for a whole response.
+     * It is never saved.
+     */
+    @Ignore
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Integer attachedSeatsAvailable;
+
+    /**
+     * The websafe key, encoded on first use. The key of a Conference never changes.
+     */
+    @Ignore
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private String websafeKey;
+
     /**
      * Just making the default constructor private.
      */
@@ -131,9 +168,17 @@ public class Conference {
         return profileKey;
     }
 
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getKey() {
+        return Key.create(profileKey, Conference.class, id);
+    }
+
     // Get a String version of the key
     public String getWebsafeKey() {
-        return Key.create(profileKey, Conference.class, id).getString();
+        if (websafeKey == null) {
+            websafeKey = getKey().getString();
+        }
+        return websafeKey;
     }
 
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
@@ -147,13 +192,30 @@ public class Conference {
      * @return organizer's display name. If there is no Profile, return his/her userId.
      */
     public String getOrganizerDisplayName() {
-        // Profile organizer = ofy().load().key(Key.create(Profile.class, organizerUserId)).now();
-        Profile organizer = ofy().load().key(getProfileKey()).now();
-        if (organizer == null) {
-            return organizerUserId;
-        } else {
-            return organizer.getDisplayName();
+        if (organizerDisplayName == null) {
+            // Stored before we kept the snapshot, so we have to look up the Profile.
+            Profile organizer = OfyService.loadCached(getProfileKey());
+            attachOrganizer(organizer);
         }
+        return organizerDisplayName;
+    }
+
+    /**
+     * Returns true if the organizer's display name is already stored or attached.
+     */
+    public boolean hasOrganizerDisplayName() {
+        return organizerDisplayName != null;
+    }
+
+    /**
+     * Attaches the organizer's display name, so serializing this Conference needs no lookup.
+     * The name is saved along with the Conference.
+     *
+     * @param organizer the Profile of the organizer, null if there is no Profile.
+     */
+    public void attachOrganizer(Profile organizer) {
+        this.organizerDisplayName = organizer == null ? organizerUserId
+                : organizer.getDisplayName();
     }
 
     /**
@@ -192,10 +254,69 @@ public class Conference {
         return maxAttendees;
     }
 
+    /**
+     * Returns the number of seats currently available.
+     *
+     * @return the cached sum of the seat shards if sharded, otherwise the stored value.
+     */
     public int getSeatsAvailable() {
+        if (seatShardCount == 0) {
+            return seatsAvailable;
+        }
+        return attachedSeatsAvailable != null ? attachedSeatsAvailable
+                : SeatCounter.getSeatsAvailable(this);
+    }
+
+    /**
+     * Returns the seatsAvailable stored in the datastore, which is only a snapshot of the sum
+     * of the seat shards for a sharded Conference.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getStoredSeatsAvailable() {
         return seatsAvailable;
     }
 
+    /**
+     * Attaches the cached sum of the seat shards, so serializing this Conference needs no
+     * memcache lookup.
+     *
+     * @param seatsAvailable the number of seats available in all the shards.
+     */
+    public void attachSeatsAvailable(int seatsAvailable) {
+        this.attachedSeatsAvailable = seatsAvailable;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public int getSeatShardCount() {
+        return seatShardCount;
+    }
+
+    /**
+     * Marks the seats of this Conference as held by the given number of SeatShard entities.
+     *
+     * @param seatShardCount the number of shards.
+     */
+    public void shardSeats(final int seatShardCount) {
+        this.seatShardCount = seatShardCount;
+    }
+
+    /**
+     * Updates the seatsAvailable snapshot of a sharded Conference with the sum of its shards.
+     *
+     * @param seatsAvailable the number of seats available in all the shards.
+     */
+    public void syncSeatsAvailable(final int seatsAvailable) {
+        this.seatsAvailable = seatsAvailable;
+    }
+
+    public boolean isReservationQueue() {
+        return reservationQueue;
+    }
+
+    public void setReservationQueue(final boolean reservationQueue) {
+        this.reservationQueue = reservationQueue;
+    }
+
     /**
      * Updates the Conference with ConferenceForm.
      * This method is used upon object creation as well as updating existing Conferences.
@@ -246,6 +367,14 @@ public class Conference {
         seatsAvailable = seatsAvailable + number;
     }
 
+    /**
+     * Evicts this Conference from the per-instance cache whenever it is saved.
+     */
+    @OnSave
+    void evictFromEntityCache() {
+        EntityCache.evict(getKey());
+    }
+
     @Override
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder("Id: " + id + "\n")
@@ -0,0 +1,99 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * ConferenceSummary class holds the fields of a Conference shown in listings.
+ *
+ * It is read with a datastore projection query, so only the indexed properties below are
+ * available and the Conference entity itself is never loaded.
+ */
+public class ConferenceSummary {
+
+    /**
+     * The indexed Conference properties a summary is built from, with their datastore types.
+     */
+    public static final Map<String, Class<?>> PROPERTIES = ImmutableMap.<String, Class<?>>of(
+            "name", String.class,
+            "city", String.class,
+            "month", Long.class,
+            "maxAttendees", Long.class,
+            "seatsAvailable", Long.class);
+
+    private String websafeKey;
+
+    private String name;
+
+    private String city;
+
+    private int month;
+
+    private int maxAttendees;
+
+    private int seatsAvailable;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConferenceSummary() {}
+
+    /**
+     * Creates a summary from the result of a projection query.
+     *
+     * @param entity a projected Conference entity.
+     * @param equalityValues values of the properties that have not been projected because the
+     *     query has an equality filter on them.
+     * @return a ConferenceSummary.
+     */
+    public static ConferenceSummary fromProjection(Entity entity,
+                                                   Map<String, Object> equalityValues) {
+        ConferenceSummary summary = new ConferenceSummary();
+        summary.websafeKey = KeyFactory.keyToString(entity.getKey());
+        summary.name = (String) getValue(entity, equalityValues, "name");
+        summary.city = (String) getValue(entity, equalityValues, "city");
+        summary.month = getIntValue(entity, equalityValues, "month");
+        summary.maxAttendees = getIntValue(entity, equalityValues, "maxAttendees");
+        summary.seatsAvailable = getIntValue(entity, equalityValues, "seatsAvailable");
+        return summary;
+    }
+
+    private static Object getValue(Entity entity, Map<String, Object> equalityValues,
+                                   String property) {
+        return entity.hasProperty(property) ? entity.getProperty(property)
+                : equalityValues.get(property);
+    }
+
+    private static int getIntValue(Entity entity, Map<String, Object> equalityValues,
+                                   String property) {
+        Object value = getValue(entity, equalityValues, property);
+        return value == null ? 0 : ((Number) value).intValue();
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public int getMonth() {
+        return month;
+    }
+
+    public int getMaxAttendees() {
+        return maxAttendees;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+}
@@ -0,0 +1,94 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * ConfirmationEmail class holds a confirmation e-mail waiting to be sent to an organizer.
+ *
+ * It is a child of the organizer's Profile, so it is saved in the same transaction as the new
+ * Conference without enlisting another entity group. It only holds the recipient and the key of
+ * the Conference; the e-mail is rendered when it is sent, and deleted afterwards.
+ */
+@Entity
+public class ConfirmationEmail {
+
+    /**
+     * The id for the datastore key, assigned automatically.
+     */
+    @Id
+    private Long id;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    private String email;
+
+    private Key<Conference> conferenceKey;
+
+    /**
+     * When the e-mail may be sent next; the worker sends the e-mails that are due, oldest first.
+     */
+    @Index
+    private long nextAttemptAt;
+
+    /**
+     * The number of failed attempts to send the e-mail.
+     */
+    private int failedAttempts;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ConfirmationEmail() {}
+
+    public ConfirmationEmail(final Key<Profile> profileKey, final String email,
+                             final Key<Conference> conferenceKey) {
+        this.profileKey = profileKey;
+        this.email = email;
+        this.conferenceKey = conferenceKey;
+        this.nextAttemptAt = System.currentTimeMillis();
+    }
+
+    public Key<ConfirmationEmail> getKey() {
+        return Key.create(profileKey, ConfirmationEmail.class, id);
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public long getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    /**
+     * Holds the e-mail back from other workers while it is being sent.
+     *
+     * @param until when the e-mail may be picked up again if the worker fails.
+     */
+    public void lease(final long until) {
+        this.nextAttemptAt = until;
+    }
+
+    /**
+     * Records a failed attempt and holds the e-mail back until it may be retried.
+     *
+     * @param retryAt when the e-mail may be sent again.
+     */
+    public void failed(final long retryAt) {
+        this.failedAttempts++;
+        this.nextAttemptAt = retryAt;
+    }
+}
@@ -0,0 +1,55 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * NearlySoldOut class marks a Conference that has only a few seats left.
+ *
+ * The marker is a child of the Conference, so it is saved or deleted in the same transaction
+ * as the seats that make the Conference cross the threshold. The announcement is built from
+ * the markers alone, without scanning the Conferences.
+ */
+@Entity
+public class NearlySoldOut {
+
+    /**
+     * A Conference has at most one marker.
+     */
+    private static final long ID = 1;
+
+    @Id
+    private long id = ID;
+
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The name of the Conference, as announced.
+     */
+    private String name;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private NearlySoldOut() {}
+
+    public NearlySoldOut(final Conference conference) {
+        this.conferenceKey = conference.getKey();
+        this.name = conference.getName();
+    }
+
+    public static Key<NearlySoldOut> createKey(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, NearlySoldOut.class, ID);
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
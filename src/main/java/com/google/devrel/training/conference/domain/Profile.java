@@ -1,13 +1,19 @@
 package com.google.devrel.training.conference.domain;
 
-import com.google.appengine.repackaged.com.google.common.collect.ImmutableList;
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.EntityCache;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.OnSave;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 
 // This class is an Entity for user profile and mem-cache is enabled for it.
@@ -73,28 +79,68 @@ public class Profile {
     private Profile() {}
 
 	/**
-     * For registering an user, a property "conferenceKeysToAttend" is used
+     * Registrations made before they were stored as Registration entities, as websafe keys.
+     * MigrateRegistrationsServlet moves them out; nothing is added here any more.
      */
-    private List<String> conferenceKeysToAttend = new ArrayList<>(0);
+    private LinkedHashSet<String> conferenceKeysToAttend = new LinkedHashSet<>();
 
-	public List<String> getConferenceKeysToAttend() {
-		return ImmutableList.copyOf(conferenceKeysToAttend);
+	/**
+	 * All the registrations of the user, attached for the API response. It is not saved.
+	 */
+	@Ignore
+	private Set<String> attachedConferenceKeys;
+
+	/**
+	 * Returns an unmodifiable view of the websafe keys of the conferences to attend, as attached
+	 * by attachConferenceKeysToAttend, or else of the registrations not migrated yet.
+	 * @return the websafe keys of the conferences to attend.
+	 * @deprecated Only getProfile and saveProfile attach the registrations; use the isAttending
+	 *     and getConferencesToAttend endpoints, or Attendance on the server.
+	 */
+	@Deprecated
+	public Set<String> getConferenceKeysToAttend() {
+		if (attachedConferenceKeys == null) {
+			return getLegacyConferenceKeys();
+		}
+		return Collections.unmodifiableSet(attachedConferenceKeys);
 	}
 
-	public void addToConferenceKeysToAttend(String conferenceKey) {
-		conferenceKeysToAttend.add(conferenceKey);
+	/**
+	 * Attaches all the registrations of the user, so they are returned in the API response.
+	 * @param conferenceKeys the websafe keys from Attendance.getConferenceKeysToAttend.
+	 */
+	public void attachConferenceKeysToAttend(Set<String> conferenceKeys) {
+		this.attachedConferenceKeys = new LinkedHashSet<>(conferenceKeys);
 	}
 
 	/**
-	 * To deregister from the conference. Removes conferenceKey from the list of conferenceKeysToAttend.
+	 * Returns an unmodifiable view of the registrations not migrated yet.
+	 * Use Attendance to get all the registrations of the user.
+	 */
+	@ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+	public Set<String> getLegacyConferenceKeys() {
+		return Collections.unmodifiableSet(conferenceKeysToAttend);
+	}
+
+	public boolean hasLegacyConferenceKey(String conferenceKey) {
+		return conferenceKeysToAttend.contains(conferenceKey);
+	}
+
+	/**
+	 * Removes a registration not migrated yet.
 	 * @param conferenceKey a websafe string representation of the Conference key
+	 * @return true if the registration was there.
 	 */
-	public void unregisterFromConference(String conferenceKey) {
-		if (conferenceKeysToAttend.contains(conferenceKey)) {
-			conferenceKeysToAttend.remove(conferenceKey);
-		} else {
-			throw new IllegalArgumentException("The conference with key " +conferenceKey+ " has not been registered.");
-		}
+	public boolean removeLegacyConferenceKey(String conferenceKey) {
+		return conferenceKeysToAttend.remove(conferenceKey);
+	}
+
+	/**
+	 * Evicts this Profile from the per-instance cache whenever it is saved.
+	 */
+	@OnSave
+	void evictFromEntityCache() {
+		EntityCache.evict(Key.create(Profile.class, userId));
 	}
 
 }
@@ -0,0 +1,68 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.devrel.training.conference.service.KeyCache;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * Registration class records that a user is registered to attend a Conference.
+ *
+ * Registrations are children of the attendee's Profile, named after the websafe key of the
+ * Conference, so checking a registration is a direct get and registering writes one small
+ * entity instead of rewriting the Profile.
+ */
+@Entity
+@Cache
+public class Registration {
+
+    /**
+     * The websafe key of the Conference, as the name for the datastore key.
+     */
+    @Id
+    private String websafeConferenceKey;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    @Index
+    private Key<Conference> conferenceKey;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Registration() {}
+
+    public Registration(final String userId, final String websafeConferenceKey) {
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.profileKey = Key.create(Profile.class, userId);
+        this.conferenceKey = KeyCache.parse(websafeConferenceKey);
+    }
+
+    /**
+     * Returns the key of the registration of a user for a Conference.
+     *
+     * @param userId the userId of the attendee.
+     * @param websafeConferenceKey the websafe key of the Conference.
+     * @return the key of the registration.
+     */
+    public static Key<Registration> createKey(String userId, String websafeConferenceKey) {
+        return Key.create(Key.create(Profile.class, userId), Registration.class,
+                websafeConferenceKey);
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public Key<Profile> getProfileKey() {
+        return profileKey;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+}
@@ -0,0 +1,37 @@
+package com.google.devrel.training.conference.domain;
+
+/**
+ * Wrapper class for the outcome of a single registration in a batch.
+ */
+public class RegistrationResult {
+    private String userId;
+    private String websafeConferenceKey;
+    private boolean result;
+    private String reason;
+
+    public RegistrationResult() {}
+
+    public RegistrationResult(String userId, String websafeConferenceKey, boolean result,
+                              String reason) {
+        this.userId = userId;
+        this.websafeConferenceKey = websafeConferenceKey;
+        this.result = result;
+        this.reason = reason;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return websafeConferenceKey;
+    }
+
+    public boolean getResult() {
+        return result;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,116 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * RequestOutcome class records the outcome of a mutating request sent with a client request id,
+ * so a retry of the request replays it instead of running the request again.
+ *
+ * Outcomes are children of the user's Profile, named after the API method and the request id,
+ * and are cached in memcache. They are purged once they have expired.
+ */
+@Entity
+@Cache(expirationSeconds = 600)
+public class RequestOutcome {
+
+    /**
+     * The API method and the client request id, as the name for the datastore key.
+     */
+    @Id
+    private String name;
+
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The name of the result code of the request.
+     */
+    private String code;
+
+    /**
+     * What the request returned: the websafe key of a created entity, or the reason of a
+     * WrappedBoolean.
+     */
+    private String result;
+
+    /**
+     * What a batch request returned for each of its items, in order.
+     */
+    private List<String> results;
+
+    /**
+     * A hash of what a batch request asked for, so that its outcome is only replayed to a retry
+     * of the same request.
+     */
+    private String requestHash;
+
+    @Index
+    private Date expiresAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private RequestOutcome() {}
+
+    public RequestOutcome(final String userId, final String method, final String requestId,
+                          final String code, final String result, final Date expiresAt) {
+        this.name = method + ":" + requestId;
+        this.profileKey = Key.create(Profile.class, userId);
+        this.code = code;
+        this.result = result;
+        this.expiresAt = expiresAt;
+    }
+
+    public RequestOutcome(final String userId, final String method, final String requestId,
+                          final String requestHash, final String code, final List<String> results,
+                          final Date expiresAt) {
+        this(userId, method, requestId, code, (String) null, expiresAt);
+        this.requestHash = requestHash;
+        this.results = results;
+    }
+
+    /**
+     * Returns the key of the outcome of a request.
+     *
+     * @param userId the userId of the user who sent the request.
+     * @param method the name of the API method.
+     * @param requestId the request id chosen by the client.
+     * @return the key of the outcome.
+     */
+    public static Key<RequestOutcome> createKey(String userId, String method, String requestId) {
+        return Key.create(Key.create(Profile.class, userId), RequestOutcome.class,
+                method + ":" + requestId);
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public List<String> getResults() {
+        return results;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public Date getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isExpired() {
+        return expiresAt.getTime() <= System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,125 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.Date;
+
+/**
+ * Reservation class records a registration request for a Conference in reservation queue mode.
+ *
+ * Reservations are root entities, so appending one never contends with the Conference. The
+ * client polls the reservation until the queue worker has accepted or rejected it.
+ */
+@Entity
+@Cache
+public class Reservation {
+
+    public enum Status {
+        PENDING,
+        ACCEPTED,
+        REJECTED
+    }
+
+    /**
+     * The id for the datastore key, assigned automatically.
+     */
+    @Id
+    private Long id;
+
+    /**
+     * The Conference to register for.
+     */
+    @Index
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The userId of the user to register.
+     */
+    private String userId;
+
+    /**
+     * When the reservation was made; the queue worker serves reservations in this order.
+     */
+    @Index
+    private Date createdAt;
+
+    @Index
+    private Status status;
+
+    /**
+     * The outcome of the reservation, null while pending.
+     */
+    private String reason;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private Reservation() {}
+
+    public Reservation(final Key<Conference> conferenceKey, final String userId) {
+        this.conferenceKey = conferenceKey;
+        this.userId = userId;
+        this.createdAt = new Date();
+        this.status = Status.PENDING;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Long getId() {
+        return id;
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Reservation> getKey() {
+        return Key.create(Reservation.class, id);
+    }
+
+    public String getWebsafeKey() {
+        return getKey().getString();
+    }
+
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getWebsafeConferenceKey() {
+        return conferenceKey.getString();
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Returns a defensive copy of createdAt.
+     * @return a defensive copy of createdAt.
+     */
+    public Date getCreatedAt() {
+        return new Date(createdAt.getTime());
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Records the outcome decided by the queue worker.
+     *
+     * @param reason the reason of the rejection, null when the reservation has been accepted.
+     */
+    public void complete(final String reason) {
+        this.status = reason == null ? Status.ACCEPTED : Status.REJECTED;
+        this.reason = reason == null ? "Registration successful" : reason;
+    }
+}
@@ -0,0 +1,89 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * ReservationOutcome class records the decision of the queue worker for one Reservation.
+ *
+ * Outcomes are children of the Conference and are saved in the same transaction as the seats
+ * they book, so a Reservation is decided exactly once even when a drain is retried. They are
+ * then copied to the Profile and the Reservation, and marked as applied.
+ */
+@Entity
+public class ReservationOutcome {
+
+    /**
+     * The id of the Reservation.
+     */
+    @Id
+    private long reservationId;
+
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    private String userId;
+
+    /**
+     * The reason of the rejection, null when the Reservation has been accepted.
+     */
+    private String reason;
+
+    /**
+     * Whether the outcome has been copied to the Profile and the Reservation.
+     */
+    @Index
+    private boolean applied;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private ReservationOutcome() {}
+
+    public ReservationOutcome(final Reservation reservation, final String reason) {
+        this.reservationId = reservation.getId();
+        this.conferenceKey = reservation.getConferenceKey();
+        this.userId = reservation.getUserId();
+        this.reason = reason;
+    }
+
+    public static Key<ReservationOutcome> createKey(Reservation reservation) {
+        return Key.create(reservation.getConferenceKey(), ReservationOutcome.class,
+                reservation.getId());
+    }
+
+    public Key<Reservation> getReservationKey() {
+        return Key.create(Reservation.class, reservationId);
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public boolean isAccepted() {
+        return reason == null;
+    }
+
+    public boolean isApplied() {
+        return applied;
+    }
+
+    public void reject(final String reason) {
+        this.reason = reason;
+    }
+
+    public void markApplied() {
+        this.applied = true;
+    }
+}
@@ -0,0 +1,96 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * SeatChange class records a registration or unregistration whose seat has been booked or given
+ * back, but whose Registration has not been updated yet.
+ *
+ * It is a child of the entity that holds the seat, the SeatShard or else the Conference, so it
+ * is saved in the same single-group transaction as the seat. It is deleted once the
+ * Registration has been updated, or once the seat has been put back when the Registration
+ * already was as the change asked.
+ */
+@Entity
+public class SeatChange {
+
+    public enum Type {
+        REGISTER,
+        UNREGISTER
+    }
+
+    /**
+     * The id for the datastore key, allocated before the change is saved.
+     */
+    @Id
+    private Long id;
+
+    /**
+     * The key of the SeatShard or the Conference whose seat has been booked or given back.
+     */
+    @Parent
+    private Key<?> seatKey;
+
+    private Key<Conference> conferenceKey;
+
+    private String userId;
+
+    private Type type;
+
+    /**
+     * The request id chosen by the client, so the outcome is saved along with the
+     * Registration, whoever applies the change; null if there is none.
+     */
+    private String requestId;
+
+    private Date createdAt;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SeatChange() {}
+
+    public SeatChange(final Key<SeatChange> key, final Key<Conference> conferenceKey,
+                      final String userId, final Type type, final String requestId) {
+        this.id = key.getId();
+        this.seatKey = key.getParent();
+        this.conferenceKey = conferenceKey;
+        this.userId = userId;
+        this.type = type;
+        this.requestId = requestId;
+        this.createdAt = new Date();
+    }
+
+    public Key<SeatChange> getKey() {
+        return Key.create(seatKey, SeatChange.class, id);
+    }
+
+    public Key<?> getSeatKey() {
+        return seatKey;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+}
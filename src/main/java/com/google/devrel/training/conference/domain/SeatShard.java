@@ -0,0 +1,95 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * SeatShard class holds a slice of the seats of a Conference.
+ *
+ * Each shard is a root entity, so registrations that book seats from different shards of the
+ * same Conference do not contend on a single entity group.
+ */
+@Entity
+@Cache
+public class SeatShard {
+
+    /**
+     * The name for the datastore key, derived from the Conference key and the shard index.
+     */
+    @Id
+    private String id;
+
+    /**
+     * The Conference this shard belongs to.
+     */
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The number of seats this shard owns.
+     */
+    private int capacity;
+
+    /**
+     * Number of seats of this shard currently available.
+     */
+    private int seatsAvailable;
+
+    /**
+     * Just making the default constructor private.
+     */
+    private SeatShard() {}
+
+    public SeatShard(final Key<Conference> conferenceKey, final int index, final int capacity) {
+        this.id = createId(conferenceKey, index);
+        this.conferenceKey = conferenceKey;
+        this.capacity = capacity;
+        this.seatsAvailable = capacity;
+    }
+
+    private static String createId(Key<Conference> conferenceKey, int index) {
+        return conferenceKey.getString() + ":" + index;
+    }
+
+    /**
+     * Returns the key of the shard with the given index of a Conference.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @param index the index of the shard, starting from 0.
+     * @return the key of the shard.
+     */
+    public static Key<SeatShard> createKey(Key<Conference> conferenceKey, int index) {
+        return Key.create(SeatShard.class, createId(conferenceKey, index));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Key<Conference> getConferenceKey() {
+        return conferenceKey;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSeatsAvailable() {
+        return seatsAvailable;
+    }
+
+    public void bookSeats(final int number) {
+        if (seatsAvailable < number) {
+            throw new IllegalArgumentException("There are no seats available.");
+        }
+        seatsAvailable = seatsAvailable - number;
+    }
+
+    public void giveBackSeats(final int number) {
+        if (seatsAvailable + number > capacity) {
+            throw new IllegalArgumentException("The number of seats will exceeds the capacity.");
+        }
+        seatsAvailable = seatsAvailable + number;
+    }
+}
@@ -4,13 +4,24 @@ import static com.google.devrel.training.conference.service.OfyService.ofy;
 
 import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.common.collect.ImmutableList;
 import com.google.devrel.training.conference.domain.Conference;
 
 import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -20,6 +31,16 @@ public class ConferenceQueryForm {
 
     private static final Logger LOG = Logger.getLogger(ConferenceQueryForm.class.getName());
 
+    /**
+     * The number of conferences returned in a page when the client doesn't specify it.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 20;
+
+    /**
+     * The maximum number of conferences returned in a page.
+     */
+    public static final int MAX_PAGE_SIZE = 100;
+
     /**
      * Enum representing a field type.
      */
@@ -54,17 +75,20 @@ public class ConferenceQueryForm {
      * Enum representing an operator.
      */
     public static enum Operator {
-        EQ("=="),
-        LT("<"),
-        GT(">"),
-        LTEQ("<="),
-        GTEQ(">="),
-        NE("!=");
+        EQ("==", FilterOperator.EQUAL),
+        LT("<", FilterOperator.LESS_THAN),
+        GT(">", FilterOperator.GREATER_THAN),
+        LTEQ("<=", FilterOperator.LESS_THAN_OR_EQUAL),
+        GTEQ(">=", FilterOperator.GREATER_THAN_OR_EQUAL),
+        NE("!=", FilterOperator.NOT_EQUAL);
 
         private String queryOperator;
 
-        private Operator(String queryOperator) {
+        private FilterOperator filterOperator;
+
+        private Operator(String queryOperator, FilterOperator filterOperator) {
             this.queryOperator = queryOperator;
+            this.filterOperator = filterOperator;
         }
 
         private String getQueryOperator() {
@@ -104,6 +128,10 @@ public class ConferenceQueryForm {
         public String getValue() {
             return value;
         }
+
+        private Object getTypedValue() {
+            return field.fieldType == FieldType.INTEGER ? Integer.parseInt(value) : value;
+        }
     }
 
     /**
@@ -111,6 +139,16 @@ public class ConferenceQueryForm {
      */
     private List<Filter> filters = new ArrayList<>(0);
 
+    /**
+     * The number of conferences to return in a page, DEFAULT_PAGE_SIZE when not positive.
+     */
+    private int pageSize;
+
+    /**
+     * The opaque cursor returned with the previous page, null for the first page.
+     */
+    private String cursor;
+
     /**
      * Holds the first inequalityFilter for checking the feasibility of the whole query.
      */
@@ -144,6 +182,32 @@ public class ConferenceQueryForm {
         return ImmutableList.copyOf(filters);
     }
 
+    /**
+     * Returns the effective page size, bounded by MAX_PAGE_SIZE.
+     *
+     * @return the number of conferences to return in a page.
+     */
+    public int getPageSize() {
+        return pageSize <= 0 ? DEFAULT_PAGE_SIZE : Math.min(pageSize, MAX_PAGE_SIZE);
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Sets the page size and the cursor of the page to return.
+     *
+     * @param pageSize the number of conferences to return.
+     * @param cursor the cursor returned with the previous page, null for the first page.
+     * @return this for method chaining.
+     */
+    public ConferenceQueryForm page(int pageSize, String cursor) {
+        this.pageSize = pageSize;
+        this.cursor = cursor;
+        return this;
+    }
+
     /**
      * Adds a query filter.
      *
@@ -164,12 +228,13 @@ public class ConferenceQueryForm {
     }
 
     /**
-     * Returns an Objectify Query object for the specified filters.
+     * Returns an Objectify Query object for the specified filters, limited to a single page.
      *
      * @return an Objectify Query.
+     * @throws BadRequestException if the cursor is malformed.
      */
     @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
-    public Query<Conference> getQuery() {
+    public Query<Conference> getQuery() throws BadRequestException {
         // First check the feasibility of inequality filters.
         checkFilters();
         Query<Conference> query = ofy().load().type(Conference.class);
@@ -183,15 +248,126 @@ public class ConferenceQueryForm {
         }
         for (Filter filter : this.filters) {
             // Applies filters in order.
-            if (filter.field.fieldType == FieldType.STRING) {
-                query = query.filter(String.format("%s %s", filter.field.getFieldName(),
-                        filter.operator.getQueryOperator()), filter.value);
-            } else if (filter.field.fieldType == FieldType.INTEGER) {
-                query = query.filter(String.format("%s %s", filter.field.getFieldName(),
-                        filter.operator.getQueryOperator()), Integer.parseInt(filter.value));
+            query = query.filter(String.format("%s %s", filter.field.getFieldName(),
+                    filter.operator.getQueryOperator()), filter.getTypedValue());
+        }
+        query = query.limit(getPageSize());
+        Cursor startCursor = getStartCursor();
+        if (startCursor != null) {
+            query = query.startAt(startCursor);
+        }
+        LOG.info(query.toString());
+        return query;
+    }
+
+    /**
+     * Returns a canonical form of the filters and the page, which is the same for all the forms
+     * describing the same query regardless of the order of the filters.
+     *
+     * @return a String usable as a cache key.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getCanonicalForm() {
+        List<String> canonicalFilters = new ArrayList<>(filters.size());
+        for (Filter filter : this.filters) {
+            String value = String.valueOf(filter.getTypedValue());
+            // Prefix the value with its length, so no value can be mistaken for a separator.
+            canonicalFilters.add(filter.field.name() + " " + filter.operator.name() + " "
+                    + value.length() + ":" + value);
+        }
+        Collections.sort(canonicalFilters);
+        StringBuilder canonicalForm = new StringBuilder();
+        for (String canonicalFilter : canonicalFilters) {
+            canonicalForm.append(canonicalFilter).append("&");
+        }
+        canonicalForm.append("pageSize=").append(getPageSize());
+        if (cursor != null && !cursor.isEmpty()) {
+            canonicalForm.append("&cursor=").append(cursor);
+        }
+        return canonicalForm.toString();
+    }
+
+    /**
+     * Returns the values of the properties that have an equality filter.
+     * Such properties can't be projected, and all the results share the filter value.
+     *
+     * @return a Map from property names to the filter values.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Map<String, Object> getEqualityValues() {
+        Map<String, Object> equalityValues = new HashMap<>();
+        for (Filter filter : this.filters) {
+            if (filter.operator == Operator.EQ) {
+                equalityValues.put(filter.field.getFieldName(), filter.getTypedValue());
+            }
+        }
+        return equalityValues;
+    }
+
+    /**
+     * Returns a datastore projection query for the specified filters, which only reads the given
+     * properties from the index. Properties with an equality filter are not projected.
+     *
+     * @param properties the names and types of the indexed properties to project.
+     * @return a low-level datastore Query.
+     */
+    public com.google.appengine.api.datastore.Query getProjectionQuery(
+            Map<String, Class<?>> properties) {
+        checkFilters();
+        com.google.appengine.api.datastore.Query query =
+                new com.google.appengine.api.datastore.Query("Conference");
+        if (inequalityFilter != null) {
+            query.addSort(inequalityFilter.field.getFieldName(), SortDirection.ASCENDING);
+        }
+        query.addSort("name", SortDirection.ASCENDING);
+        List<com.google.appengine.api.datastore.Query.Filter> predicates = new ArrayList<>();
+        for (Filter filter : this.filters) {
+            predicates.add(new FilterPredicate(filter.field.getFieldName(),
+                    filter.operator.filterOperator, filter.getTypedValue()));
+        }
+        if (predicates.size() == 1) {
+            query.setFilter(predicates.get(0));
+        } else if (predicates.size() > 1) {
+            query.setFilter(CompositeFilterOperator.and(predicates));
+        }
+        Map<String, Object> equalityValues = getEqualityValues();
+        for (Map.Entry<String, Class<?>> property : properties.entrySet()) {
+            if (!equalityValues.containsKey(property.getKey())) {
+                query.addProjection(
+                        new PropertyProjection(property.getKey(), property.getValue()));
             }
         }
         LOG.info(query.toString());
         return query;
     }
+
+    /**
+     * Returns the FetchOptions for the page to return from a projection query.
+     *
+     * @return FetchOptions with the page size and the start cursor.
+     * @throws BadRequestException if the cursor is malformed.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public FetchOptions getFetchOptions() throws BadRequestException {
+        FetchOptions fetchOptions = FetchOptions.Builder.withLimit(getPageSize());
+        Cursor startCursor = getStartCursor();
+        if (startCursor != null) {
+            fetchOptions.startCursor(startCursor);
+        }
+        return fetchOptions;
+    }
+
+    /**
+     * Returns the cursor of the page to return, null for the first page.
+     */
+    private Cursor getStartCursor() throws BadRequestException {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return Cursor.fromWebSafeString(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid page token");
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.form;
+
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simple Java object (POJO) representing a batch of registrations sent from the client.
+ */
+public class RegistrationsForm {
+
+    /**
+     * A class representing a single user to register for a single conference.
+     */
+    public static class Entry {
+        private String userId;
+        private String websafeConferenceKey;
+
+        public Entry() {}
+
+        public Entry(String userId, String websafeConferenceKey) {
+            this.userId = userId;
+            this.websafeConferenceKey = websafeConferenceKey;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getWebsafeConferenceKey() {
+            return websafeConferenceKey;
+        }
+    }
+
+    /**
+     * A list of registrations.
+     */
+    private List<Entry> entries = new ArrayList<>(0);
+
+    private RegistrationsForm() {}
+
+    /**
+     * Public constructor is solely for Unit Test.
+     * @param entries
+     */
+    public RegistrationsForm(List<Entry> entries) {
+        this.entries = entries == null ? null : ImmutableList.copyOf(entries);
+    }
+
+    public List<Entry> getEntries() {
+        return entries == null ? ImmutableList.<Entry>of() : ImmutableList.copyOf(entries);
+    }
+
+    /**
+     * Returns a hash of the entries in order, which tells a retry of the same batch from another
+     * batch sent with the same request id.
+     *
+     * @return the hex SHA-256 of the entries.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public String getHash() {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (Entry entry : getEntries()) {
+            putField(hasher, entry.getUserId());
+            putField(hasher, entry.getWebsafeConferenceKey());
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Hashes a value with its length first, so that no two lists of entries hash the same way.
+     */
+    private static void putField(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putString(value, Charsets.UTF_8);
+        }
+    }
+}
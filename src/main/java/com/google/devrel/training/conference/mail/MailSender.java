@@ -0,0 +1,50 @@
+package com.google.devrel.training.conference.mail;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+
+/**
+ * Delivers the e-mails sent by the application.
+ *
+ * The implementation is chosen by configuration, see MailSenders, so the mail paths can be
+ * exercised and load tested offline without sending real mail.
+ */
+public interface MailSender {
+
+    /**
+     * Returns the session to build the messages with.
+     */
+    Session getSession();
+
+    /**
+     * Returns the address the application sends its e-mails from.
+     */
+    String getFromAddress();
+
+    /**
+     * Opens a connection to send a batch of messages over.
+     *
+     * @return the open connection, to be closed by the caller.
+     * @throws MessagingException when the connection cannot be opened.
+     */
+    Connection connect() throws MessagingException;
+
+    /**
+     * A connection to the mail service, reused for all the messages of a batch.
+     */
+    interface Connection extends AutoCloseable {
+
+        /**
+         * Sends one message. A failure only affects this message, and the connection can be
+         * used for the next one.
+         *
+         * @param message the message to send.
+         * @throws MessagingException when the message cannot be sent.
+         */
+        void send(Message message) throws MessagingException;
+
+        @Override
+        void close();
+    }
+}
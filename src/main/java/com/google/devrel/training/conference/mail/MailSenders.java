@@ -0,0 +1,79 @@
+package com.google.devrel.training.conference.mail;
+
+import com.google.appengine.api.utils.SystemProperty;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import javax.mail.Session;
+
+/**
+ * Chooses the MailSender from the system properties, set in appengine-web.xml:
+ *
+ * <ul>
+ * <li>conference.mail.sender: appengine (the default), smtp or spool.</li>
+ * <li>conference.mail.from: the sender address, noreply@APP_ID.appspotmail.com by default.</li>
+ * <li>conference.mail.smtp.host and conference.mail.smtp.port: the server for smtp.</li>
+ * <li>conference.mail.spool.dir: the directory for spool.</li>
+ * </ul>
+ */
+public class MailSenders {
+
+    private static final Logger LOG = Logger.getLogger(MailSenders.class.getName());
+
+    private static volatile MailSender sender;
+
+    /**
+     * Returns the configured MailSender, creating it on first use.
+     */
+    public static MailSender get() {
+        MailSender current = sender;
+        if (current == null) {
+            synchronized (MailSenders.class) {
+                current = sender;
+                if (current == null) {
+                    current = create();
+                    sender = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Replaces the MailSender, e.g. with a recording one in tests.
+     * Passing null goes back to the configured one.
+     *
+     * @param mailSender the MailSender to use from now on.
+     */
+    public static void set(MailSender mailSender) {
+        sender = mailSender;
+    }
+
+    private static MailSender create() {
+        String type = System.getProperty("conference.mail.sender", "appengine");
+        String from = System.getProperty("conference.mail.from", String.format(
+                "noreply@%s.appspotmail.com", SystemProperty.applicationId.get()));
+        LOG.info("Sending e-mails with the " + type + " mail sender");
+        switch (type) {
+            case "appengine":
+                return new TransportMailSender(
+                        Session.getDefaultInstance(new Properties(), null), from);
+            case "smtp":
+                Properties properties = new Properties();
+                properties.setProperty("mail.smtp.host",
+                        System.getProperty("conference.mail.smtp.host", "localhost"));
+                properties.setProperty("mail.smtp.port",
+                        System.getProperty("conference.mail.smtp.port", "25"));
+                return new TransportMailSender(Session.getInstance(properties, null), from);
+            case "spool":
+                File defaultDirectory =
+                        new File(System.getProperty("java.io.tmpdir"), "conference-mail");
+                return new SpoolMailSender(new File(System.getProperty(
+                        "conference.mail.spool.dir", defaultDirectory.getPath())), from);
+            default:
+                throw new IllegalArgumentException("Unknown mail sender " + type);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.google.devrel.training.conference.mail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A text template with {name} placeholders, parsed once and rendered many times.
+ *
+ * Templates are immutable and safe to share between threads, so they can be kept in static
+ * fields and rendered by every request.
+ */
+public class MailTemplate {
+
+    /**
+     * The literal text between the placeholders; there is one more than placeholders.
+     */
+    private final String[] literals;
+
+    private final String[] placeholders;
+
+    private final int estimatedLength;
+
+    private MailTemplate(List<String> literals, List<String> placeholders, int textLength) {
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.placeholders = placeholders.toArray(new String[placeholders.size()]);
+        this.estimatedLength = textLength + 32 * placeholders.size();
+    }
+
+    /**
+     * Parses a template.
+     *
+     * @param text the template text, with placeholders written as {name}.
+     * @return the parsed template.
+     * @throws IllegalArgumentException when a placeholder is not closed.
+     */
+    public static MailTemplate compile(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        int start = 0;
+        int open;
+        while ((open = text.indexOf('{', start)) >= 0) {
+            int close = text.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at " + open);
+            }
+            literals.add(text.substring(start, open));
+            placeholders.add(text.substring(open + 1, close));
+            start = close + 1;
+        }
+        literals.add(text.substring(start));
+        return new MailTemplate(literals, placeholders, text.length());
+    }
+
+    /**
+     * Renders the template. A placeholder without a value is rendered empty.
+     *
+     * @param values the values of the placeholders, by name.
+     * @return the rendered text.
+     */
+    public String render(Map<String, ?> values) {
+        StringBuilder stringBuilder = new StringBuilder(estimatedLength).append(literals[0]);
+        for (int i = 0; i < placeholders.length; i++) {
+            Object value = values.get(placeholders[i]);
+            if (value != null) {
+                stringBuilder.append(value);
+            }
+            stringBuilder.append(literals[i + 1]);
+        }
+        return stringBuilder.toString();
+    }
+}
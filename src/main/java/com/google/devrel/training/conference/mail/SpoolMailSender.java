@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.mail;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+
+/**
+ * Writes the e-mails as .eml files into a spool directory instead of sending them.
+ *
+ * Meant for running the mail paths locally, where the files can be inspected or counted.
+ */
+public class SpoolMailSender implements MailSender {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final Session session = Session.getInstance(new Properties(), null);
+
+    private final File directory;
+
+    private final String fromAddress;
+
+    public SpoolMailSender(final File directory, final String fromAddress) {
+        this.directory = directory;
+        this.fromAddress = fromAddress;
+    }
+
+    @Override
+    public Session getSession() {
+        return session;
+    }
+
+    @Override
+    public String getFromAddress() {
+        return fromAddress;
+    }
+
+    @Override
+    public Connection connect() throws MessagingException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new MessagingException("Cannot create the mail spool " + directory);
+        }
+        return new Connection() {
+            @Override
+            public void send(Message message) throws MessagingException {
+                File file = new File(directory, System.currentTimeMillis() + "-"
+                        + SEQUENCE.incrementAndGet() + ".eml");
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    message.writeTo(out);
+                } catch (IOException e) {
+                    throw new MessagingException("Cannot write " + file, e);
+                }
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+}
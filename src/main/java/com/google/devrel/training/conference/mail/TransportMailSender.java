@@ -0,0 +1,61 @@
+package com.google.devrel.training.conference.mail;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+/**
+ * Sends the e-mails over a JavaMail transport.
+ *
+ * On App Engine, the default session's smtp transport hands the messages to the Mail service.
+ * Given a session pointing at an SMTP host, it sends to that server instead, e.g. a local SMTP
+ * stand-in when load testing.
+ */
+public class TransportMailSender implements MailSender {
+
+    private static final Logger LOG = Logger.getLogger(TransportMailSender.class.getName());
+
+    private final Session session;
+
+    private final String fromAddress;
+
+    public TransportMailSender(final Session session, final String fromAddress) {
+        this.session = session;
+        this.fromAddress = fromAddress;
+    }
+
+    @Override
+    public Session getSession() {
+        return session;
+    }
+
+    @Override
+    public String getFromAddress() {
+        return fromAddress;
+    }
+
+    @Override
+    public Connection connect() throws MessagingException {
+        final Transport transport = session.getTransport("smtp");
+        transport.connect();
+        return new Connection() {
+            @Override
+            public void send(Message message) throws MessagingException {
+                transport.sendMessage(message, message.getAllRecipients());
+            }
+
+            @Override
+            public void close() {
+                try {
+                    transport.close();
+                } catch (MessagingException e) {
+                    LOG.log(Level.FINE, "Failed to close the mail transport", e);
+                }
+            }
+        };
+    }
+}
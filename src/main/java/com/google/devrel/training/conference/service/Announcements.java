@@ -0,0 +1,164 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.Constants;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the announcement of the nearly sold out Conferences in memcache.
+ *
+ * Whenever a Conference enters or leaves the NearlySoldOutIndex, a refresh is scheduled. All the
+ * changes in the same window share one refresh task, so the announcement is republished within
+ * seconds however busy the registrations are. The hourly cron only covers memcache evictions.
+ *
+ * The announcement is stored with a version stamp. Every instance keeps the announcement in
+ * memory and checks the version in memcache at most every REVALIDATE_MILLIS, so almost all
+ * reads are served without a memcache round trip.
+ */
+public class Announcements {
+
+    private static final Logger LOG = Logger.getLogger(Announcements.class.getName());
+
+    /**
+     * The length of the window in which changes are coalesced into a single refresh.
+     */
+    private static final long REFRESH_WINDOW_MILLIS = 2 * 1000;
+
+    /**
+     * How long a refresh waits after its window, so the transactions that scheduled it have
+     * committed and the index query sees their markers.
+     */
+    private static final long SETTLE_MILLIS = 1000;
+
+    /**
+     * How often the instance checks memcache for an announcement published by another instance.
+     */
+    private static final long REVALIDATE_MILLIS = 5 * 1000;
+
+    private static final MemcacheService MEMCACHE = MemcacheServiceFactory.getMemcacheService();
+
+    /**
+     * An announcement along with its version, as stored in memcache.
+     */
+    private static class Published implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long version;
+        private final String message;
+
+        private Published(long version, String message) {
+            this.version = version;
+            this.message = message;
+        }
+    }
+
+    /**
+     * The announcement held by the instance, and when its version was last checked.
+     */
+    private static class LocalEntry {
+        private final Published published;
+        private final long checkedAt;
+
+        private LocalEntry(Published published, long checkedAt) {
+            this.published = published;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    private static volatile LocalEntry local;
+
+    /**
+     * Returns the current announcement from the instance memory, checking memcache for a newer
+     * version at most every REVALIDATE_MILLIS.
+     *
+     * @return the announcement, null if there is none.
+     */
+    public static String get() {
+        LocalEntry entry = local;
+        if (entry == null || System.currentTimeMillis() - entry.checkedAt >= REVALIDATE_MILLIS) {
+            entry = revalidate(entry);
+        }
+        return entry.published.message;
+    }
+
+    private static synchronized LocalEntry revalidate(LocalEntry entry) {
+        if (local != entry) {
+            // Another request has just revalidated it.
+            return local;
+        }
+        long now = System.currentTimeMillis();
+        Object version = MEMCACHE.get(Constants.MEMCACHE_ANNOUNCEMENTS_VERSION_KEY);
+        Published published;
+        if (entry != null && version != null
+                && ((Number) version).longValue() == entry.published.version) {
+            published = entry.published;
+        } else {
+            Object stored = MEMCACHE.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+            // The cron republishes the announcement if it has been evicted.
+            published = stored instanceof Published ? (Published) stored : new Published(0, null);
+        }
+        local = new LocalEntry(published, now);
+        return local;
+    }
+
+    /**
+     * Builds the announcement from the NearlySoldOutIndex and publishes it with a new version,
+     * or publishes that there is none when no Conference is nearly sold out.
+     *
+     * @return the announcement, null if there is none.
+     */
+    public static String publish() {
+        List<String> conferenceNames = NearlySoldOutIndex.getConferenceNames();
+        String announcementText = null;
+        if (!conferenceNames.isEmpty()) {
+            // Build a String that announces the nearly sold-out conferences
+            announcementText = "Last chance to attend! The following conferences are nearly "
+                    + "sold out: " + Joiner.on(", ").skipNulls().join(conferenceNames);
+        }
+        long now = System.currentTimeMillis();
+        // Start from the current time, so an evicted version never matches an old announcement.
+        Long version = MEMCACHE.increment(Constants.MEMCACHE_ANNOUNCEMENTS_VERSION_KEY, 1, now);
+        Published published = new Published(version == null ? now : version, announcementText);
+        MEMCACHE.put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, published);
+        local = new LocalEntry(published, now);
+        return announcementText;
+    }
+
+    /**
+     * Drops the announcement held by the instance, e.g. when the local memcache is reset
+     * between tests.
+     */
+    public static void clearLocalCache() {
+        local = null;
+    }
+
+    /**
+     * Schedules a refresh of the announcement. All the calls in the same window share one task.
+     * It is safe to call inside a transaction: the task is added right away, and a refresh that
+     * turns out to be unnecessary just republishes the same announcement.
+     */
+    public static void scheduleRefresh() {
+        long now = System.currentTimeMillis();
+        long window = now / REFRESH_WINDOW_MILLIS;
+        Queue queue = QueueFactory.getDefaultQueue();
+        try {
+            // Named tasks cannot be transactional, so add it outside any current transaction.
+            queue.add((Transaction) null, TaskOptions.Builder
+                    .withUrl("/tasks/refresh_announcement")
+                    .taskName("refresh-announcement-" + window)
+                    .countdownMillis((window + 1) * REFRESH_WINDOW_MILLIS - now + SETTLE_MILLIS));
+        } catch (TaskAlreadyExistsException e) {
+            LOG.fine("Announcement refresh already scheduled");
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the conferences users are registered to attend, as Registration entities.
+ *
+ * Profiles saved before Registration existed still hold their registrations in a list property
+ * until MigrateRegistrationsServlet has moved them, so every check looks at both.
+ */
+public class Attendance {
+
+    /**
+     * Returns true if the user is registered to attend the conference.
+     * Inside a transaction, this enlists the entity group of the Profile.
+     *
+     * @param profile the Profile of the user.
+     * @param websafeConferenceKey the websafe key of the Conference.
+     */
+    public static boolean isAttending(Profile profile, String websafeConferenceKey) {
+        return profile.hasLegacyConferenceKey(websafeConferenceKey)
+                || ofy().load().key(Registration.createKey(profile.getUserId(),
+                websafeConferenceKey)).now() != null;
+    }
+
+    /**
+     * Returns true if the user is registered to attend the conference, using registrations
+     * already loaded with a batch get.
+     *
+     * @param profile the Profile of the user.
+     * @param websafeConferenceKey the websafe key of the Conference.
+     * @param registrations the result of a batch get that includes the registration key.
+     */
+    public static boolean isAttending(Profile profile, String websafeConferenceKey,
+                                      Map<? extends Key<?>, ?> registrations) {
+        return profile.hasLegacyConferenceKey(websafeConferenceKey) || registrations
+                .containsKey(Registration.createKey(profile.getUserId(), websafeConferenceKey));
+    }
+
+    /**
+     * Registers the user to attend the conference. The Profile is saved only when it is new.
+     *
+     * @param profile the Profile of the user.
+     * @param websafeConferenceKey the websafe key of the Conference.
+     */
+    public static void register(Profile profile, String websafeConferenceKey) {
+        if (ofy().load().key(Key.create(Profile.class, profile.getUserId())).now() == null) {
+            ofy().save().entity(profile);
+        }
+        ofy().save().entity(new Registration(profile.getUserId(), websafeConferenceKey));
+    }
+
+    /**
+     * Registers the users to attend the conference with one batch put, outside any transaction.
+     * All the Profiles must already exist.
+     *
+     * @param userIds the userIds of the users.
+     * @param websafeConferenceKey the websafe key of the Conference.
+     */
+    public static void registerAll(Collection<String> userIds, String websafeConferenceKey) {
+        List<Registration> registrations = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            registrations.add(new Registration(userId, websafeConferenceKey));
+        }
+        ofy().save().entities(registrations).now();
+    }
+
+    /**
+     * Unregisters the user from the conference.
+     *
+     * @param profile the Profile of the user.
+     * @param websafeConferenceKey the websafe key of the Conference.
+     */
+    public static void unregister(Profile profile, String websafeConferenceKey) {
+        if (profile.removeLegacyConferenceKey(websafeConferenceKey)) {
+            ofy().save().entity(profile);
+        }
+        ofy().delete().key(Registration.createKey(profile.getUserId(), websafeConferenceKey));
+    }
+
+    /**
+     * Returns the websafe keys of the conferences the user is registered to attend, with a
+     * keys-only ancestor query.
+     *
+     * @param profile the Profile of the user.
+     * @return the websafe keys of the conferences.
+     */
+    public static Set<String> getConferenceKeysToAttend(Profile profile) {
+        return getConferenceKeysToAttend(profile,
+                startRegistrationQuery(profile.getUserId()));
+    }
+
+    /**
+     * Starts the keys-only ancestor query on the registrations of the user. The query is in
+     * flight when this method returns, so the Profile can be loaded at the same time.
+     *
+     * @param userId the userId of the user.
+     * @return the iterator over the keys of the registrations.
+     */
+    public static Iterator<Key<Registration>> startRegistrationQuery(String userId) {
+        return ofy().load().type(Registration.class)
+                .ancestor(Key.create(Profile.class, userId)).keys().iterator();
+    }
+
+    /**
+     * Returns the websafe keys of the conferences the user is registered to attend.
+     *
+     * @param profile the Profile of the user, null if it doesn't exist.
+     * @param registrationKeys the result of startRegistrationQuery for the same user.
+     * @return the websafe keys of the conferences.
+     */
+    public static Set<String> getConferenceKeysToAttend(Profile profile,
+            Iterator<Key<Registration>> registrationKeys) {
+        Set<String> conferenceKeys = new LinkedHashSet<>();
+        if (profile != null) {
+            conferenceKeys.addAll(profile.getLegacyConferenceKeys());
+        }
+        while (registrationKeys.hasNext()) {
+            conferenceKeys.add(registrationKeys.next().getName());
+        }
+        return conferenceKeys;
+    }
+
+    /**
+     * Returns a query on the registrations for a conference, for listing its attendees.
+     * The parent of each Registration key is the key of an attendee's Profile.
+     *
+     * Registrations still stored in a Profile are not listed until they have been migrated.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return the query, in no particular order.
+     */
+    public static Query<Registration> queryAttendees(Key<Conference> conferenceKey) {
+        return ofy().load().type(Registration.class).filter("conferenceKey", conferenceKey);
+    }
+}
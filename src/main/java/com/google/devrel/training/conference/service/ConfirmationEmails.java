@@ -0,0 +1,251 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConfirmationEmail;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.mail.MailSender;
+import com.google.devrel.training.conference.mail.MailSenders;
+import com.google.devrel.training.conference.mail.MailTemplate;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Delivery pipeline for the confirmation e-mails sent to the organizers of new Conferences.
+ *
+ * Confirmations are saved as ConfirmationEmail entities in the transaction that creates the
+ * Conference. A worker picks up the due ones in batches and sends each batch over one
+ * connection of the configured MailSender. The e-mails are rendered from a template with
+ * the Conferences of the whole batch loaded in one batch get. A failed e-mail is retried on
+ * its own with an exponential backoff, without holding up the rest of the batch. Delivery is
+ * at least once: an e-mail sent by a worker that dies before deleting it is sent again.
+ */
+public class ConfirmationEmails {
+
+    private static final Logger LOG = Logger.getLogger(ConfirmationEmails.class.getName());
+
+    /**
+     * The number of e-mails picked up and sent at once.
+     */
+    private static final int EMAILS_PER_BATCH = 100;
+
+    /**
+     * The number of batches a single task sends before handing over to the next task.
+     */
+    private static final int MAX_BATCHES_PER_DRAIN = 10;
+
+    /**
+     * How long a batch is held back from other workers; it must cover sending the whole batch.
+     */
+    private static final long LEASE_MILLIS = 60 * 1000;
+
+    /**
+     * The backoff after the first failure, doubled after every further failure.
+     */
+    private static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+
+    private static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * The number of attempts after which an e-mail is dropped.
+     */
+    private static final int MAX_ATTEMPTS = 10;
+
+    /**
+     * The length of the window in which e-mails are coalesced into a single drain task.
+     */
+    private static final long DRAIN_WINDOW_MILLIS = 5 * 1000;
+
+    private static final MailTemplate BODY = MailTemplate.compile(
+            "Hi, you have created a following conference.\n"
+            + "Name: {name}\n"
+            + "City: {city}\n"
+            + "Topics: {topics}\n"
+            + "StartDate: {startDate}\n"
+            + "EndDate: {endDate}\n"
+            + "Max Attendees: {maxAttendees}\n");
+
+    /**
+     * Saves the confirmation for a new Conference. Inside a transaction, it is saved only if the
+     * transaction commits. Call scheduleDrain() once the transaction has committed.
+     *
+     * @param profile the Profile of the organizer.
+     * @param conference the new Conference.
+     */
+    public static void enqueue(Profile profile, Conference conference) {
+        ofy().save().entity(new ConfirmationEmail(Key.create(Profile.class, profile.getUserId()),
+                profile.getMainEmail(), conference.getKey()));
+    }
+
+    /**
+     * Schedules the worker after the given delay. All the calls in the same window share one
+     * task, so creating many Conferences at once costs a single task per window. A cron job
+     * also runs the worker, in case an e-mail was saved but its drain never scheduled.
+     *
+     * @param delayMillis how long to wait before sending.
+     */
+    public static void scheduleDrain(long delayMillis) {
+        long now = System.currentTimeMillis();
+        long window = (now + delayMillis) / DRAIN_WINDOW_MILLIS;
+        Queue queue = QueueFactory.getDefaultQueue();
+        try {
+            // Named tasks cannot be transactional, so add it outside any current transaction.
+            queue.add((Transaction) null, TaskOptions.Builder
+                    .withUrl("/tasks/send_confirmation_email")
+                    .taskName("send-confirmation-emails-" + window)
+                    .countdownMillis((window + 1) * DRAIN_WINDOW_MILLIS - now));
+        } catch (TaskAlreadyExistsException e) {
+            LOG.fine("Confirmation e-mails already scheduled");
+        }
+    }
+
+    /**
+     * Sends the due e-mails in batches, oldest first.
+     *
+     * @return true when there may be more e-mails to send.
+     */
+    public static boolean drain() {
+        for (int i = 0; i < MAX_BATCHES_PER_DRAIN; i++) {
+            long now = System.currentTimeMillis();
+            List<Key<ConfirmationEmail>> keys = ofy().load().type(ConfirmationEmail.class)
+                    .filter("nextAttemptAt <=", now)
+                    .order("nextAttemptAt")
+                    .limit(EMAILS_PER_BATCH)
+                    .keys().list();
+            if (keys.isEmpty()) {
+                return false;
+            }
+            List<ConfirmationEmail> batch = claim(keys, now);
+            if (!batch.isEmpty()) {
+                sendBatch(batch);
+            }
+            if (keys.size() < EMAILS_PER_BATCH) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Holds the e-mails back from the other workers, and retries them if this one dies. The
+     * query may lag behind, so each e-mail is leased in a transaction that checks it again.
+     *
+     * @return the e-mails still due, now leased to this worker.
+     */
+    static List<ConfirmationEmail> claim(List<Key<ConfirmationEmail>> keys, final long now) {
+        List<ConfirmationEmail> claimed = new ArrayList<>(keys.size());
+        for (final Key<ConfirmationEmail> key : keys) {
+            ConfirmationEmail email;
+            try {
+                email = Transactions.run("claimConfirmationEmail",
+                        new Work<ConfirmationEmail>() {
+                    @Override
+                    public ConfirmationEmail run() {
+                        ConfirmationEmail email = ofy().load().key(key).now();
+                        if (email == null || email.getNextAttemptAt() > now) {
+                            // Sent, or leased by another worker, since the query.
+                            return null;
+                        }
+                        email.lease(now + LEASE_MILLIS);
+                        ofy().save().entity(email);
+                        return email;
+                    }
+                });
+            } catch (Transactions.ContentionException e) {
+                LOG.fine("Another worker is claiming the confirmation " + key);
+                continue;
+            }
+            if (email != null) {
+                claimed.add(email);
+            }
+        }
+        return claimed;
+    }
+
+    private static void sendBatch(List<ConfirmationEmail> batch) {
+        List<Key<ConfirmationEmail>> done = new ArrayList<>(batch.size());
+        List<ConfirmationEmail> failed = new ArrayList<>();
+        Set<Key<Conference>> conferenceKeys = new HashSet<>();
+        for (ConfirmationEmail email : batch) {
+            conferenceKeys.add(email.getConferenceKey());
+        }
+        Map<Key<Conference>, Conference> conferences = ofy().load().keys(conferenceKeys);
+        MailSender sender = MailSenders.get();
+        try (MailSender.Connection connection = sender.connect()) {
+            for (ConfirmationEmail email : batch) {
+                Conference conference = conferences.get(email.getConferenceKey());
+                if (conference == null) {
+                    LOG.warning("Dropping the confirmation of a deleted conference to "
+                            + email.getEmail());
+                    done.add(email.getKey());
+                    continue;
+                }
+                try {
+                    connection.send(createMessage(sender, email.getEmail(), conference));
+                    done.add(email.getKey());
+                } catch (MessagingException | UnsupportedEncodingException e) {
+                    if (email.getFailedAttempts() + 1 >= MAX_ATTEMPTS) {
+                        LOG.log(Level.SEVERE, "Giving up on the confirmation to "
+                                + email.getEmail(), e);
+                        done.add(email.getKey());
+                        continue;
+                    }
+                    long backoffMillis = Math.min(MAX_BACKOFF_MILLIS,
+                            INITIAL_BACKOFF_MILLIS << email.getFailedAttempts());
+                    LOG.log(Level.WARNING, "Failed to send the confirmation to "
+                            + email.getEmail() + ", retrying in " + backoffMillis + "ms", e);
+                    email.failed(System.currentTimeMillis() + backoffMillis);
+                    failed.add(email);
+                    scheduleDrain(backoffMillis);
+                }
+            }
+        } catch (MessagingException e) {
+            // The leases of the unsent e-mails expire, and a later drain retries them.
+            LOG.log(Level.WARNING, "Failed to connect to the mail service", e);
+            scheduleDrain(LEASE_MILLIS);
+        }
+        ofy().delete().keys(done).now();
+        ofy().save().entities(failed).now();
+    }
+
+    private static Message createMessage(MailSender sender, String email, Conference conference)
+            throws MessagingException, UnsupportedEncodingException {
+        Message message = new MimeMessage(sender.getSession());
+        message.setFrom(new InternetAddress(sender.getFromAddress(), "Conference Central"));
+        message.addRecipient(Message.RecipientType.TO,
+                new InternetAddress(email, ""));
+        message.setSubject("You created a new Conference!");
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", conference.getName());
+        values.put("city", conference.getCity());
+        values.put("topics", conference.getTopics() == null
+                ? null : Joiner.on(", ").join(conference.getTopics()));
+        values.put("startDate", conference.getStartDate());
+        values.put("endDate", conference.getEndDate());
+        values.put("maxAttendees", conference.getMaxAttendees());
+        message.setText(BODY.render(values));
+        return message;
+    }
+}
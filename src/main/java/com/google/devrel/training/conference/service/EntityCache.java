@@ -0,0 +1,86 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.datastore.Entity;
+import com.googlecode.objectify.Key;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded per-instance cache of datastore entities, in front of Objectify's memcache.
+ *
+ * Entities are held in their datastore form, so every lookup builds a new object and no
+ * instance is shared between requests. Local saves evict the entity; saves made by other
+ * instances become visible after at most TTL_MILLIS.
+ */
+public class EntityCache {
+
+    /**
+     * How long an entity is served from the instance before it is loaded again.
+     */
+    public static final long TTL_MILLIS = 2 * 1000;
+
+    /**
+     * The maximum number of entities held by the instance.
+     */
+    private static final int MAX_SIZE = 1000;
+
+    private static class CacheEntry {
+        private final Entity entity;
+        private final long expiresAt;
+
+        private CacheEntry(Entity entity, long expiresAt) {
+            this.entity = entity;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final Map<Key<?>, CacheEntry> CACHE =
+            new LinkedHashMap<Key<?>, CacheEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key<?>, CacheEntry> eldest) {
+                    return size() > MAX_SIZE;
+                }
+            };
+
+    /**
+     * Returns a copy of the cached entity.
+     *
+     * @param key the key of the entity.
+     * @return a copy of the entity, null if not cached or expired.
+     */
+    public static Entity get(Key<?> key) {
+        synchronized (CACHE) {
+            CacheEntry entry = CACHE.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= System.currentTimeMillis()) {
+                CACHE.remove(key);
+                return null;
+            }
+            return entry.entity.clone();
+        }
+    }
+
+    public static void put(Key<?> key, Entity entity) {
+        synchronized (CACHE) {
+            CACHE.put(key, new CacheEntry(entity.clone(), System.currentTimeMillis() + TTL_MILLIS));
+        }
+    }
+
+    public static void evict(Key<?> key) {
+        synchronized (CACHE) {
+            CACHE.remove(key);
+        }
+    }
+
+    /**
+     * Evicts all the entities, e.g. when the local datastore is reset between tests.
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.google.devrel.training.conference.service;
+
+import com.googlecode.objectify.Key;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded per-instance cache of parsed websafe keys.
+ *
+ * Decoding a websafe key means base64 and protobuf decoding, and the same few hot Conference
+ * keys are decoded by almost every request. Keys are immutable, so they are shared freely.
+ */
+public class KeyCache {
+
+    /**
+     * The maximum number of keys held by the instance.
+     */
+    private static final int MAX_SIZE = 5000;
+
+    private static final Map<String, Key<?>> CACHE =
+            new LinkedHashMap<String, Key<?>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Key<?>> eldest) {
+                    return size() > MAX_SIZE;
+                }
+            };
+
+    /**
+     * Returns the key for a websafe key string, decoding it only on a cache miss.
+     *
+     * @param websafeKey the String representation of the key.
+     * @return the key.
+     * @throws IllegalArgumentException when the string is not a valid key.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Key<T> parse(String websafeKey) {
+        synchronized (CACHE) {
+            Key<?> key = CACHE.get(websafeKey);
+            if (key != null) {
+                return (Key<T>) key;
+            }
+        }
+        Key<T> key = Key.create(websafeKey);
+        synchronized (CACHE) {
+            CACHE.put(websafeKey, key);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,121 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Incrementally maintained index of the Conferences that are nearly sold out.
+ *
+ * The paths that change the stored seatsAvailable of a Conference call seatsChanged along
+ * with saving it, which saves or deletes its NearlySoldOut marker when the threshold is
+ * crossed. The announcement reads the few markers instead of querying and loading the
+ * Conferences. rebuild() recreates the markers from scratch, e.g. after a data fix.
+ */
+public class NearlySoldOutIndex {
+
+    private static final Logger LOG = Logger.getLogger(NearlySoldOutIndex.class.getName());
+
+    /**
+     * A Conference is nearly sold out when it has fewer seats left than this, but not none.
+     */
+    public static final int SEATS_THRESHOLD = 5;
+
+    /**
+     * Returns true if a Conference with the given number of seats left is nearly sold out.
+     *
+     * @param seatsAvailable the stored seatsAvailable of the Conference.
+     */
+    public static boolean isNearlySoldOut(int seatsAvailable) {
+        return seatsAvailable > 0 && seatsAvailable < SEATS_THRESHOLD;
+    }
+
+    /**
+     * Updates the marker of a Conference if changing its stored seatsAvailable has made it cross
+     * the threshold. Call it inside the transaction that saves the Conference.
+     *
+     * @param conference the Conference being saved.
+     * @param previousSeatsAvailable the stored seatsAvailable before the change, 0 for a new
+     *     Conference.
+     */
+    public static void seatsChanged(Conference conference, int previousSeatsAvailable) {
+        boolean nearlySoldOut = isNearlySoldOut(conference.getStoredSeatsAvailable());
+        if (nearlySoldOut != isNearlySoldOut(previousSeatsAvailable)) {
+            update(conference, nearlySoldOut);
+        }
+    }
+
+    /**
+     * Saves or deletes the marker of a Conference that has crossed the threshold, and schedules
+     * a refresh of the announcement.
+     * Inside a transaction, the marker is written along with the Conference.
+     *
+     * @param conference the Conference being saved.
+     * @param nearlySoldOut whether the Conference is now nearly sold out.
+     */
+    public static void update(Conference conference, boolean nearlySoldOut) {
+        if (nearlySoldOut) {
+            ofy().save().entity(new NearlySoldOut(conference));
+        } else {
+            ofy().delete().key(NearlySoldOut.createKey(conference.getKey()));
+        }
+        Announcements.scheduleRefresh();
+    }
+
+    /**
+     * Returns the names of the Conferences that are nearly sold out.
+     * The query is eventually consistent, like the Conference query it replaces.
+     *
+     * @return the names of the Conferences.
+     */
+    public static List<String> getConferenceNames() {
+        List<String> names = new ArrayList<>();
+        for (NearlySoldOut marker : ofy().load().type(NearlySoldOut.class)) {
+            names.add(marker.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Recreates the markers from a keys-only query on seatsAvailable. Only the Conferences
+     * missing a marker are loaded. A Conference crossing the threshold while this runs may be
+     * left with a stale marker until it crosses the threshold again.
+     *
+     * @return the number of markers saved or deleted.
+     */
+    public static int rebuild() {
+        Set<Key<Conference>> nearlySoldOut = new HashSet<>(ofy().load().type(Conference.class)
+                .filter("seatsAvailable <", SEATS_THRESHOLD)
+                .filter("seatsAvailable >", 0)
+                .keys().list());
+
+        List<Key<NearlySoldOut>> staleMarkers = new ArrayList<>();
+        for (Key<NearlySoldOut> markerKey : ofy().load().type(NearlySoldOut.class).keys()) {
+            Key<Conference> conferenceKey = markerKey.getParent();
+            if (!nearlySoldOut.remove(conferenceKey)) {
+                staleMarkers.add(markerKey);
+            }
+        }
+        // What is left in nearlySoldOut has no marker yet.
+        List<NearlySoldOut> missingMarkers = new ArrayList<>(nearlySoldOut.size());
+        for (Conference conference : ofy().load().keys(nearlySoldOut).values()) {
+            missingMarkers.add(new NearlySoldOut(conference));
+        }
+        ofy().delete().keys(staleMarkers).now();
+        ofy().save().entities(missingMarkers).now();
+        if (!missingMarkers.isEmpty() || !staleMarkers.isEmpty()) {
+            Announcements.scheduleRefresh();
+        }
+        LOG.info("Rebuilt the nearly sold out index: " + missingMarkers.size() + " added, "
+                + staleMarkers.size() + " removed");
+        return missingMarkers.size() + staleMarkers.size();
+    }
+}
@@ -1,10 +1,30 @@
 package com.google.devrel.training.conference.service;
 
+import com.google.appengine.api.datastore.Entity;
+import com.google.devrel.training.conference.domain.AppliedSeatChange;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConfirmationEmail;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.RequestOutcome;
+import com.google.devrel.training.conference.domain.Reservation;
+import com.google.devrel.training.conference.domain.ReservationOutcome;
+import com.google.devrel.training.conference.domain.SeatChange;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.util.ResultCache;
+import com.googlecode.objectify.util.ResultNow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Custom Objectify Service that this application should use.
@@ -16,6 +36,15 @@ public class OfyService {
     static {
         factory().register(Profile.class);
         factory().register(Conference.class);
+        factory().register(SeatShard.class);
+        factory().register(Registration.class);
+        factory().register(NearlySoldOut.class);
+        factory().register(Reservation.class);
+        factory().register(ReservationOutcome.class);
+        factory().register(ConfirmationEmail.class);
+        factory().register(SeatChange.class);
+        factory().register(AppliedSeatChange.class);
+        factory().register(RequestOutcome.class);
     }
 
     /**
@@ -34,4 +63,84 @@ public class OfyService {
     public static ObjectifyFactory factory() {
         return ObjectifyService.factory();
     }
+
+    /**
+     * Loads an entity through the per-instance EntityCache, skipping the memcache round trip for
+     * hot keys. Use it only for read-only lookups: the entity may be up to
+     * EntityCache.TTL_MILLIS stale when another instance has saved it.
+     *
+     * @param key the key of the entity.
+     * @return the entity, null if it doesn't exist.
+     */
+    public static <T> T loadCached(Key<T> key) {
+        return loadCachedAsync(key).now();
+    }
+
+    /**
+     * Loads entities through the per-instance EntityCache; the misses are loaded with one batch
+     * get. Inside a transaction this is the same as ofy().load().keys(keys).
+     *
+     * @param keys the keys of the entities.
+     * @return a Map of the entities that exist.
+     */
+    public static <T> Map<Key<T>, T> loadCached(Iterable<Key<T>> keys) {
+        return loadCachedAsync(keys).now();
+    }
+
+    /**
+     * Starts loading an entity through the per-instance EntityCache, like loadCached(key),
+     * without waiting for the datastore.
+     *
+     * @param key the key of the entity.
+     * @return the pending entity, null if it doesn't exist.
+     */
+    public static <T> Result<T> loadCachedAsync(final Key<T> key) {
+        final Result<Map<Key<T>, T>> loaded = loadCachedAsync(Collections.singletonList(key));
+        return new ResultCache<T>() {
+            @Override
+            protected T nowUncached() {
+                return loaded.now().get(key);
+            }
+        };
+    }
+
+    /**
+     * Starts loading entities through the per-instance EntityCache, like loadCached(keys).
+     * The batch get for the misses is in flight when this method returns, so other lookups
+     * can be started before calling now() on the result.
+     *
+     * @param keys the keys of the entities.
+     * @return the pending Map of the entities that exist.
+     */
+    public static <T> Result<Map<Key<T>, T>> loadCachedAsync(Iterable<Key<T>> keys) {
+        if (ofy().getTransaction() != null) {
+            return new ResultNow<>(ofy().load().keys(keys));
+        }
+        final Map<Key<T>, T> result = new LinkedHashMap<>();
+        List<Key<T>> misses = new ArrayList<>();
+        for (Key<T> key : keys) {
+            // Entities already in the session are as cheap, and may have local changes.
+            Entity entity = ofy().isLoaded(key) ? null : EntityCache.get(key);
+            if (entity == null) {
+                misses.add(key);
+            } else {
+                result.put(key, ofy().load().<T>fromEntity(entity));
+            }
+        }
+        if (misses.isEmpty()) {
+            return new ResultNow<>(result);
+        }
+        // Objectify issues the batch get right away, and only blocks when the Map is read.
+        final Map<Key<T>, T> pending = ofy().load().keys(misses);
+        return new ResultCache<Map<Key<T>, T>>() {
+            @Override
+            protected Map<Key<T>, T> nowUncached() {
+                for (Map.Entry<Key<T>, T> loaded : pending.entrySet()) {
+                    result.put(loaded.getKey(), loaded.getValue());
+                    EntityCache.put(loaded.getKey(), ofy().save().toEntity(loaded.getValue()));
+                }
+                return result;
+            }
+        };
+    }
 }
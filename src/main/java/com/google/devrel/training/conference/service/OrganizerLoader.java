@@ -0,0 +1,68 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.util.ResultNow;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the organizers of the Conferences in a response with one batch get.
+ */
+public class OrganizerLoader {
+
+    /**
+     * Loads the Profiles of all the organizers at once and attaches their display names to the
+     * Conferences, so serializing them doesn't look up each Profile separately.
+     * Conferences that already store the display name are skipped.
+     *
+     * @param conferences the Conferences of a response.
+     * @return the given conferences, for method chaining.
+     */
+    public static <T extends Iterable<Conference>> T attachOrganizers(T conferences) {
+        return attachOrganizers(conferences, loadOrganizers(conferences));
+    }
+
+    /**
+     * Starts loading the Profiles of the organizers that are not stored in the Conferences.
+     * Pass the result to attachOrganizers once the other lookups of the response are started.
+     *
+     * @param conferences the Conferences of a response.
+     * @return the pending organizer Profiles.
+     */
+    public static Result<Map<Key<Profile>, Profile>> loadOrganizers(
+            Iterable<Conference> conferences) {
+        Set<Key<Profile>> organizerKeys = new LinkedHashSet<>();
+        for (Conference conference : conferences) {
+            if (!conference.hasOrganizerDisplayName()) {
+                organizerKeys.add(conference.getProfileKey());
+            }
+        }
+        if (organizerKeys.isEmpty()) {
+            return new ResultNow<>(Collections.<Key<Profile>, Profile>emptyMap());
+        }
+        return OfyService.loadCachedAsync(organizerKeys);
+    }
+
+    /**
+     * Attaches the display names of the organizers loaded by loadOrganizers.
+     *
+     * @param conferences the Conferences of a response.
+     * @param organizers the result of loadOrganizers for the same Conferences.
+     * @return the given conferences, for method chaining.
+     */
+    public static <T extends Iterable<Conference>> T attachOrganizers(T conferences,
+            Result<Map<Key<Profile>, Profile>> organizers) {
+        for (Conference conference : conferences) {
+            if (!conference.hasOrganizerDisplayName()) {
+                conference.attachOrganizer(organizers.now().get(conference.getProfileKey()));
+            }
+        }
+        return conferences;
+    }
+}
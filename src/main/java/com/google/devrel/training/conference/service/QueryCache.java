@@ -0,0 +1,204 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.googlecode.objectify.Key;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Caches the result pages of Conference queries.
+ *
+ * A page is cached as the list of the matching Conference keys, in memcache and in a small
+ * near-cache inside the instance. Every cache key contains a generation number, which is bumped
+ * whenever a Conference is created, so all the cached pages are invalidated at once.
+ */
+public class QueryCache {
+
+    private static final Logger LOG = Logger.getLogger(QueryCache.class.getName());
+
+    /**
+     * How long a page lives in memcache.
+     */
+    private static final int EXPIRATION_SECONDS = 60;
+
+    /**
+     * How long a page lives in the near-cache.
+     */
+    private static final long NEAR_CACHE_TTL_MILLIS = 5 * 1000;
+
+    /**
+     * The maximum number of pages held in the near-cache.
+     */
+    private static final int NEAR_CACHE_SIZE = 1000;
+
+    /**
+     * How often the instance checks memcache for a generation bumped by another instance.
+     */
+    private static final long GENERATION_CHECK_MILLIS = 1000;
+
+    /**
+     * A page of a query result.
+     */
+    public static class Page implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<String> websafeKeys;
+        private final String nextPageToken;
+
+        public Page(List<Conference> conferences, String nextPageToken) {
+            this.websafeKeys = new ArrayList<>(conferences.size());
+            for (Conference conference : conferences) {
+                websafeKeys.add(conference.getWebsafeKey());
+            }
+            this.nextPageToken = nextPageToken;
+        }
+
+        public List<Key<Conference>> getKeys() {
+            List<Key<Conference>> keys = new ArrayList<>(websafeKeys.size());
+            for (String websafeKey : websafeKeys) {
+                keys.add(KeyCache.<Conference>parse(websafeKey));
+            }
+            return keys;
+        }
+
+        public List<String> getWebsafeKeys() {
+            return Collections.unmodifiableList(websafeKeys);
+        }
+
+        public String getNextPageToken() {
+            return nextPageToken;
+        }
+    }
+
+    private static class NearCacheEntry {
+        private final Page page;
+        private final long expiresAt;
+
+        private NearCacheEntry(Page page, long expiresAt) {
+            this.page = page;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final Map<String, NearCacheEntry> NEAR_CACHE =
+            new LinkedHashMap<String, NearCacheEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, NearCacheEntry> eldest) {
+                    return size() > NEAR_CACHE_SIZE;
+                }
+            };
+
+    private static long generation;
+
+    private static long generationCheckedAt;
+
+    private static MemcacheService memcache() {
+        return MemcacheServiceFactory.getMemcacheService();
+    }
+
+    /**
+     * Returns the current generation, checking memcache at most every GENERATION_CHECK_MILLIS.
+     * The check runs outside the lock, and the other threads keep the current generation
+     * meanwhile. When memcache fails, the current generation is kept as well.
+     */
+    private static long getGeneration() {
+        long now = System.currentTimeMillis();
+        synchronized (QueryCache.class) {
+            if (now - generationCheckedAt < GENERATION_CHECK_MILLIS) {
+                return generation;
+            }
+            generationCheckedAt = now;
+        }
+        Object current = memcache().get(Constants.MEMCACHE_QUERY_GENERATION_KEY);
+        if (current == null) {
+            // Start from a new value, so an evicted generation never revives old pages.
+            current = memcache().increment(Constants.MEMCACHE_QUERY_GENERATION_KEY, 1, now);
+        }
+        synchronized (QueryCache.class) {
+            if (current == null) {
+                LOG.warning("Could not read the query cache generation, keeping " + generation);
+            } else {
+                // A generation never goes back, even if an invalidate() raced with the check.
+                generation = Math.max(generation, ((Number) current).longValue());
+            }
+            return generation;
+        }
+    }
+
+    private static String getCacheKey(ConferenceQueryForm conferenceQueryForm) {
+        return Constants.MEMCACHE_QUERY_PREFIX + getGeneration() + "_"
+                + conferenceQueryForm.getCanonicalForm();
+    }
+
+    /**
+     * Returns the cached page for the query, from the near-cache or from memcache.
+     *
+     * @param conferenceQueryForm the query and the page.
+     * @return the cached page, null if not cached.
+     */
+    public static Page get(ConferenceQueryForm conferenceQueryForm) {
+        String cacheKey = getCacheKey(conferenceQueryForm);
+        long now = System.currentTimeMillis();
+        synchronized (NEAR_CACHE) {
+            NearCacheEntry entry = NEAR_CACHE.get(cacheKey);
+            if (entry != null && entry.expiresAt > now) {
+                return entry.page;
+            }
+        }
+        Page page = (Page) memcache().get(cacheKey);
+        if (page != null) {
+            putNearCache(cacheKey, page, now);
+        }
+        return page;
+    }
+
+    /**
+     * Caches a page of the query result.
+     *
+     * @param conferenceQueryForm the query and the page.
+     * @param page the page to cache.
+     */
+    public static void put(ConferenceQueryForm conferenceQueryForm, Page page) {
+        String cacheKey = getCacheKey(conferenceQueryForm);
+        memcache().put(cacheKey, page, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+        putNearCache(cacheKey, page, System.currentTimeMillis());
+    }
+
+    private static void putNearCache(String cacheKey, Page page, long now) {
+        synchronized (NEAR_CACHE) {
+            NEAR_CACHE.put(cacheKey, new NearCacheEntry(page, now + NEAR_CACHE_TTL_MILLIS));
+        }
+    }
+
+    /**
+     * Invalidates all the cached pages by bumping the generation.
+     * Other instances see the new generation within GENERATION_CHECK_MILLIS.
+     */
+    public static void invalidate() {
+        long now = System.currentTimeMillis();
+        Long current = memcache().increment(Constants.MEMCACHE_QUERY_GENERATION_KEY, 1, now);
+        if (current == null) {
+            // Memcache is failing, so only the near-cache may still serve the old pages.
+            LOG.warning("Could not bump the query cache generation");
+            synchronized (NEAR_CACHE) {
+                NEAR_CACHE.clear();
+            }
+            return;
+        }
+        synchronized (QueryCache.class) {
+            generation = Math.max(generation, current);
+            generationCheckedAt = now;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.RequestOutcome;
+import com.googlecode.objectify.Key;
+
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Deduplicates the mutating requests that clients retry, e.g. after a timeout.
+ *
+ * A client may send a request id with a mutating request. The outcome of the request is saved
+ * under that id, and a retry with the same id returns the saved outcome without running the
+ * request again. Outcomes are kept for TTL_MILLIS, which covers the retries of a client.
+ */
+public class RequestOutcomes {
+
+    private static final Logger LOG = Logger.getLogger(RequestOutcomes.class.getName());
+
+    /**
+     * How long an outcome is replayed.
+     */
+    public static final long TTL_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * The maximum length of a request id, which is part of the key of its outcome.
+     */
+    public static final int MAX_REQUEST_ID_LENGTH = 64;
+
+    private static final Pattern REQUEST_ID_PATTERN =
+            Pattern.compile("[A-Za-z0-9_.-]{1," + MAX_REQUEST_ID_LENGTH + "}");
+
+    /**
+     * The number of expired outcomes deleted with one batch delete.
+     */
+    private static final int PURGE_BATCH_SIZE = 500;
+
+    /**
+     * Returns whether a request id chosen by a client may be used: up to MAX_REQUEST_ID_LENGTH
+     * letters, digits, '-', '_' or '.', such as a UUID.
+     */
+    public static boolean isValidRequestId(String requestId) {
+        return REQUEST_ID_PATTERN.matcher(requestId).matches();
+    }
+
+    /**
+     * Returns the outcome of an earlier request with the same id. Outside a transaction, it is
+     * usually served from memcache. Inside a transaction, this enlists the entity group of the
+     * user's Profile.
+     *
+     * @param userId the userId of the user who sent the request.
+     * @param method the name of the API method.
+     * @param requestId the request id chosen by the client, null if there is none.
+     * @return the outcome, null if there is none or it has expired.
+     */
+    public static RequestOutcome find(String userId, String method, String requestId) {
+        if (requestId == null) {
+            return null;
+        }
+        RequestOutcome outcome =
+                ofy().load().key(RequestOutcome.createKey(userId, method, requestId)).now();
+        return outcome == null || outcome.isExpired() ? null : outcome;
+    }
+
+    /**
+     * Saves the outcome of a request. Inside a transaction, it is saved only if the transaction
+     * commits, along with the changes of the request.
+     *
+     * @param userId the userId of the user who sent the request.
+     * @param method the name of the API method.
+     * @param requestId the request id chosen by the client, null if there is none.
+     * @param code the name of the result code of the request.
+     * @param result what the request returned.
+     */
+    public static void save(String userId, String method, String requestId, String code,
+                            String result) {
+        if (requestId == null) {
+            return;
+        }
+        // Saved right away, so a retry that comes in while the request returns finds it
+        ofy().save().entity(new RequestOutcome(userId, method, requestId, code, result,
+                new Date(System.currentTimeMillis() + TTL_MILLIS))).now();
+    }
+
+    /**
+     * Saves the outcome of a batch request, with what it returned for each of its items.
+     *
+     * @param userId the userId of the user who sent the request.
+     * @param method the name of the API method.
+     * @param requestId the request id chosen by the client, null if there is none.
+     * @param requestHash a hash of the items, checked before the outcome is replayed.
+     * @param code the name of the result code of the request.
+     * @param results what the request returned for each item, in order.
+     */
+    public static void save(String userId, String method, String requestId, String requestHash,
+                            String code, List<String> results) {
+        if (requestId == null) {
+            return;
+        }
+        ofy().save().entity(new RequestOutcome(userId, method, requestId, requestHash, code,
+                results, new Date(System.currentTimeMillis() + TTL_MILLIS))).now();
+    }
+
+    /**
+     * Deletes the expired outcomes with a keys-only query.
+     *
+     * @return the number of outcomes deleted.
+     */
+    public static int purge() {
+        int deleted = 0;
+        List<Key<RequestOutcome>> keys;
+        do {
+            keys = ofy().load().type(RequestOutcome.class)
+                    .filter("expiresAt <", new Date())
+                    .limit(PURGE_BATCH_SIZE)
+                    .keys().list();
+            ofy().delete().keys(keys).now();
+            deleted += keys.size();
+        } while (keys.size() == PURGE_BATCH_SIZE);
+        LOG.info("Purged " + deleted + " expired request outcomes");
+        return deleted;
+    }
+}
@@ -0,0 +1,284 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.RequestOutcome;
+import com.google.devrel.training.conference.domain.Reservation;
+import com.google.devrel.training.conference.domain.ReservationOutcome;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reservation queue for Conferences expecting a rush of registrations.
+ *
+ * Instead of racing on the entity group of the Conference, registrations are appended as
+ * Reservation entities and answered right away. A worker drains them in the order they were
+ * made, booking the seats for hundreds of reservations in one transaction.
+ */
+public class ReservationQueue {
+
+    private static final Logger LOG = Logger.getLogger(ReservationQueue.class.getName());
+
+    /**
+     * The number of reservations decided in one transaction. The transaction saves one
+     * ReservationOutcome per reservation along with the Conference or its seat shards,
+     * and a commit can hold at most 500 entities.
+     */
+    public static final int RESERVATIONS_PER_BATCH = 400;
+
+    /**
+     * The number of batches a single drain task decides before handing over to the next task.
+     */
+    private static final int MAX_BATCHES_PER_DRAIN = 10;
+
+    /**
+     * The length of the window in which reservations are coalesced into a single drain task.
+     */
+    private static final long DRAIN_WINDOW_MILLIS = 1000;
+
+    /**
+     * Appends a reservation for the Conference and schedules the worker. The outcome of the
+     * request is saved in the same transaction, so a retry never appends another one.
+     *
+     * @param conferenceKey the key of a Conference in reservation queue mode.
+     * @param userId the userId of the user to register, who must have a Profile.
+     * @param requestId the request id chosen by the client, null if there is none.
+     * @return the pending Reservation, or the one appended by an earlier attempt.
+     */
+    public static Reservation reserve(final Key<Conference> conferenceKey, final String userId,
+                                      final String requestId) {
+        Reservation reservation = Transactions.run("reserveForConference",
+                new Work<Reservation>() {
+            @Override
+            public Reservation run() {
+                // Check again in the transaction, in case an earlier attempt is still running
+                RequestOutcome outcome =
+                        RequestOutcomes.find(userId, "reserveForConference", requestId);
+                if (outcome != null) {
+                    return ofy().load().key(
+                            KeyCache.<Reservation>parse(outcome.getResult())).now();
+                }
+                Reservation reservation = new Reservation(conferenceKey, userId);
+                ofy().save().entity(reservation).now();
+                RequestOutcomes.save(userId, "reserveForConference", requestId, "OK",
+                        reservation.getWebsafeKey());
+                return reservation;
+            }
+        });
+        scheduleDrain(conferenceKey);
+        return reservation;
+    }
+
+    /**
+     * Schedules the worker for the Conference. All the calls in the same window share one task.
+     *
+     * @param conferenceKey the key of the Conference.
+     */
+    public static void scheduleDrain(Key<Conference> conferenceKey) {
+        String websafeConferenceKey = conferenceKey.getString();
+        long now = System.currentTimeMillis();
+        long window = now / DRAIN_WINDOW_MILLIS;
+        Queue queue = QueueFactory.getDefaultQueue();
+        try {
+            queue.add(TaskOptions.Builder.withUrl("/tasks/drain_reservations")
+                    .taskName("drain-reservations-" + websafeConferenceKey + "-" + window)
+                    .countdownMillis((window + 1) * DRAIN_WINDOW_MILLIS - now)
+                    .param("websafeConferenceKey", websafeConferenceKey));
+        } catch (TaskAlreadyExistsException e) {
+            LOG.fine("Reservations drain already scheduled for " + websafeConferenceKey);
+        }
+    }
+
+    /**
+     * Decides the pending reservations of the Conference in batches, oldest first.
+     * It is safe to run concurrently and to retry: each reservation is decided exactly once.
+     *
+     * @param conferenceKey the key of the Conference.
+     * @return true when there may be more pending reservations to drain.
+     */
+    public static boolean drain(Key<Conference> conferenceKey) {
+        for (int i = 0; i < MAX_BATCHES_PER_DRAIN; i++) {
+            // Finish the previous batch first, so its users are seen as registered.
+            applyOutcomes(conferenceKey);
+            List<Reservation> batch = loadPending(conferenceKey);
+            if (batch.isEmpty()) {
+                return false;
+            }
+            if (!decide(conferenceKey, batch)) {
+                // The batch is left pending for the next drain, once the contention has passed.
+                return true;
+            }
+        }
+        applyOutcomes(conferenceKey);
+        return true;
+    }
+
+    private static List<Reservation> loadPending(Key<Conference> conferenceKey) {
+        List<Key<Reservation>> keys = ofy().load().type(Reservation.class)
+                .filter("conferenceKey", conferenceKey)
+                .filter("status", Reservation.Status.PENDING)
+                .order("createdAt")
+                .limit(RESERVATIONS_PER_BATCH)
+                .keys().list();
+        // The index may lag behind, so check the status of the entities themselves.
+        Map<Key<Reservation>, Reservation> loaded = ofy().load().keys(keys);
+        List<Reservation> pending = new ArrayList<>(keys.size());
+        for (Key<Reservation> key : keys) {
+            Reservation reservation = loaded.get(key);
+            if (reservation != null && reservation.getStatus() == Reservation.Status.PENDING) {
+                pending.add(reservation);
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Books the seats for a batch of reservations in one transaction, and records the outcomes.
+     *
+     * @return false when the transaction kept losing to concurrent ones, and nothing was decided.
+     */
+    private static boolean decide(final Key<Conference> conferenceKey,
+                                  final List<Reservation> batch) {
+        final String websafeConferenceKey = conferenceKey.getString();
+        List<Key<Object>> keysToLoad = new ArrayList<>(batch.size() * 2);
+        for (Reservation reservation : batch) {
+            keysToLoad.add(Key.<Object>create(Profile.class, reservation.getUserId()));
+            keysToLoad.add(Key.<Object>create(Registration.createKey(reservation.getUserId(),
+                    websafeConferenceKey).getRaw()));
+        }
+        // The Profiles and the registrations are read outside the transaction, which only
+        // enlists the entity group of the Conference and its seat shards.
+        final Map<Key<Object>, Object> loaded = ofy().load().keys(keysToLoad);
+
+        Work<Integer> decision = new Work<Integer>() {
+            @Override
+            public Integer run() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                List<Key<ReservationOutcome>> outcomeKeys = new ArrayList<>(batch.size());
+                for (Reservation reservation : batch) {
+                    outcomeKeys.add(ReservationOutcome.createKey(reservation));
+                }
+                Map<Key<ReservationOutcome>, ReservationOutcome> decided =
+                        ofy().load().keys(outcomeKeys);
+
+                List<ReservationOutcome> outcomes = new ArrayList<>(batch.size());
+                List<ReservationOutcome> candidates = new ArrayList<>(batch.size());
+                Set<String> userIdsInBatch = new HashSet<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    if (decided.containsKey(outcomeKeys.get(i))) {
+                        // Already decided by a previous attempt.
+                        continue;
+                    }
+                    Reservation reservation = batch.get(i);
+                    Profile profile = (Profile) loaded.get(
+                            Key.create(Profile.class, reservation.getUserId()));
+                    String reason = null;
+                    if (conference == null) {
+                        reason = "No Conference found with key: " + websafeConferenceKey;
+                    } else if (profile == null) {
+                        reason = "Profile doesn't exist";
+                    } else if (!userIdsInBatch.add(reservation.getUserId())
+                            || Attendance.isAttending(profile, websafeConferenceKey, loaded)) {
+                        reason = "Already registered";
+                    }
+                    ReservationOutcome outcome = new ReservationOutcome(reservation, reason);
+                    outcomes.add(outcome);
+                    if (outcome.isAccepted()) {
+                        candidates.add(outcome);
+                    }
+                }
+
+                // Book the seats for all the candidates at once, first come first served
+                int booked = candidates.isEmpty() ? 0 : bookSeats(conference, candidates.size());
+                for (ReservationOutcome outcome : candidates.subList(booked, candidates.size())) {
+                    outcome.reject("No seats available");
+                }
+                ofy().save().entities(outcomes).now();
+                // An unsharded Conference holds its own count, there is nothing to sync.
+                return conference != null && conference.getSeatShardCount() > 0 ? booked : 0;
+            }
+        };
+        int bookedInShards;
+        try {
+            bookedInShards = Transactions.run("decideReservations", decision);
+        } catch (Transactions.ContentionException e) {
+            LOG.log(Level.WARNING, "Could not decide the reservations for "
+                    + websafeConferenceKey, e);
+            return false;
+        }
+        if (bookedInShards > 0) {
+            SeatCounter.seatsChanged(conferenceKey.getString(), -bookedInShards);
+        }
+        return true;
+    }
+
+    private static int bookSeats(Conference conference, int number) {
+        if (conference.getSeatShardCount() > 0) {
+            // The Conference is the only other entity group of the transaction.
+            return SeatCounter.bookSeats(conference, number, SeatCounter.MAX_SHARDS);
+        }
+        int seatsAvailable = conference.getSeatsAvailable();
+        int booked = Math.min(seatsAvailable, number);
+        if (booked > 0) {
+            conference.bookSeats(booked);
+            NearlySoldOutIndex.seatsChanged(conference, seatsAvailable);
+            ofy().save().entity(conference);
+        }
+        return booked;
+    }
+
+    /**
+     * Copies the decided outcomes to the Profiles and the Reservations.
+     * Every step is idempotent, so a failed task can simply be retried.
+     */
+    private static void applyOutcomes(Key<Conference> conferenceKey) {
+        String websafeConferenceKey = conferenceKey.getString();
+        while (true) {
+            List<ReservationOutcome> outcomes = ofy().load().type(ReservationOutcome.class)
+                    .ancestor(conferenceKey)
+                    .filter("applied", false)
+                    .limit(RESERVATIONS_PER_BATCH)
+                    .list();
+            if (outcomes.isEmpty()) {
+                return;
+            }
+
+            List<String> acceptedUserIds = new ArrayList<>(outcomes.size());
+            List<Key<Reservation>> reservationKeys = new ArrayList<>(outcomes.size());
+            for (ReservationOutcome outcome : outcomes) {
+                if (outcome.isAccepted()) {
+                    acceptedUserIds.add(outcome.getUserId());
+                }
+                reservationKeys.add(outcome.getReservationKey());
+            }
+            // A registration has a fixed key, so writing it again is harmless.
+            Attendance.registerAll(acceptedUserIds, websafeConferenceKey);
+
+            Map<Key<Reservation>, Reservation> reservations = ofy().load().keys(reservationKeys);
+            for (ReservationOutcome outcome : outcomes) {
+                Reservation reservation = reservations.get(outcome.getReservationKey());
+                if (reservation != null) {
+                    reservation.complete(outcome.getReason());
+                }
+                outcome.markApplied();
+            }
+            ofy().save().entities(reservations.values()).now();
+            ofy().save().entities(outcomes).now();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.ApiConfig;
+import com.google.apphosting.api.ApiProxy.ApiProxyException;
+import com.google.apphosting.api.ApiProxy.Delegate;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.apphosting.api.ApiProxy.LogRecord;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and times the API calls, e.g. datastore_v3.Get or memcache.Get, made by each endpoint.
+ *
+ * It wraps the ApiProxy delegate, which every datastore and memcache call goes through,
+ * including the ones Objectify makes for its session and global caches. The calls made
+ * between begin() and end() on a thread are charged to the endpoint passed to begin().
+ * A call is counted when it is made; an async call is timed until its result is first read.
+ */
+public class RpcAccounting {
+
+    private static final ThreadLocal<RequestRpcs> CURRENT = new ThreadLocal<>();
+
+    private static final ConcurrentMap<String, EndpointStats> ENDPOINTS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The calls made by one request, by API method.
+     */
+    public static class RequestRpcs {
+        private final String endpoint;
+        private final long startNanos = System.nanoTime();
+        private final Map<String, long[]> calls = new TreeMap<>();
+        private long elapsedMicros = -1;
+
+        private RequestRpcs(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        private synchronized void count(String rpc) {
+            long[] call = calls.get(rpc);
+            if (call == null) {
+                call = new long[2];
+                calls.put(rpc, call);
+            }
+            call[0]++;
+        }
+
+        private synchronized void time(String rpc, long micros) {
+            calls.get(rpc)[1] += micros;
+        }
+
+        /**
+         * Returns the number of calls made by the request.
+         */
+        public synchronized long getRpcCount() {
+            long count = 0;
+            for (long[] call : calls.values()) {
+                count += call[0];
+            }
+            return count;
+        }
+
+        /**
+         * Returns the number of calls made by the request to the given API method.
+         *
+         * @param rpc the API method, e.g. datastore_v3.RunQuery.
+         */
+        public synchronized long getRpcCount(String rpc) {
+            long[] call = calls.get(rpc);
+            return call == null ? 0 : call[0];
+        }
+
+        /**
+         * Returns the time of the request in milliseconds, up to now if it has not ended yet.
+         */
+        public synchronized long getElapsedMillis() {
+            long micros = elapsedMicros >= 0 ? elapsedMicros : micros(startNanos);
+            return micros / 1000;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder summary = new StringBuilder(endpoint).append(": ")
+                    .append(getElapsedMillis()).append("ms, ").append(getRpcCount())
+                    .append(" rpcs");
+            for (Map.Entry<String, long[]> call : calls.entrySet()) {
+                summary.append(", ").append(call.getKey()).append(" x")
+                        .append(call.getValue()[0]).append(" (")
+                        .append(call.getValue()[1] / 1000).append("ms)");
+            }
+            return summary.toString();
+        }
+    }
+
+    /**
+     * The counters of an endpoint, since the instance started.
+     */
+    public static class EndpointStats {
+        private final AtomicLong requests = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final ConcurrentMap<String, AtomicLong> calls = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, LatencyHistogram> rpcs = new ConcurrentHashMap<>();
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Returns the latencies of the requests.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Returns the number of calls made by the ended requests to the given API method.
+         *
+         * @param rpc the API method, e.g. datastore_v3.RunQuery.
+         */
+        public long getCalls(String rpc) {
+            AtomicLong count = calls.get(rpc);
+            return count == null ? 0 : count.get();
+        }
+
+        /**
+         * Returns the latencies of the calls, by API method. The count of a histogram is the
+         * number of calls that were timed.
+         */
+        public Map<String, LatencyHistogram> getRpcs() {
+            return new TreeMap<>(rpcs);
+        }
+
+        private LatencyHistogram getRpc(String rpc) {
+            LatencyHistogram histogram = rpcs.get(rpc);
+            if (histogram == null) {
+                rpcs.putIfAbsent(rpc, new LatencyHistogram());
+                histogram = rpcs.get(rpc);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Wraps the current ApiProxy delegate, unless it is already wrapped.
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized void install() {
+        Delegate<Environment> delegate = ApiProxy.getDelegate();
+        if (delegate != null && !(delegate instanceof AccountingDelegate)) {
+            ApiProxy.setDelegate(new AccountingDelegate(delegate));
+        }
+    }
+
+    /**
+     * Puts back the delegate wrapped by install().
+     */
+    public static synchronized void uninstall() {
+        Delegate<?> delegate = ApiProxy.getDelegate();
+        if (delegate instanceof AccountingDelegate) {
+            ApiProxy.setDelegate(((AccountingDelegate) delegate).delegate);
+        }
+    }
+
+    /**
+     * Starts charging the calls made on this thread to the given endpoint.
+     *
+     * @param endpoint the name of the endpoint, e.g. the API method or the servlet path.
+     */
+    public static void begin(String endpoint) {
+        CURRENT.set(new RequestRpcs(endpoint));
+    }
+
+    /**
+     * Stops charging the calls made on this thread, and adds the request to its endpoint.
+     *
+     * @return the calls made since begin(), null if begin() was not called.
+     */
+    public static RequestRpcs end() {
+        RequestRpcs request = CURRENT.get();
+        if (request == null) {
+            return null;
+        }
+        CURRENT.remove();
+        long micros = micros(request.startNanos);
+        EndpointStats stats = getStats(request.endpoint);
+        stats.requests.incrementAndGet();
+        stats.latency.record(micros);
+        synchronized (request) {
+            request.elapsedMicros = micros;
+            for (Map.Entry<String, long[]> call : request.calls.entrySet()) {
+                AtomicLong count = stats.calls.get(call.getKey());
+                if (count == null) {
+                    stats.calls.putIfAbsent(call.getKey(), new AtomicLong());
+                    count = stats.calls.get(call.getKey());
+                }
+                count.addAndGet(call.getValue()[0]);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Returns the counters of the instance, by endpoint.
+     */
+    public static Map<String, EndpointStats> getStats() {
+        return new TreeMap<>(ENDPOINTS);
+    }
+
+    private static EndpointStats getStats(String endpoint) {
+        EndpointStats stats = ENDPOINTS.get(endpoint);
+        if (stats == null) {
+            ENDPOINTS.putIfAbsent(endpoint, new EndpointStats());
+            stats = ENDPOINTS.get(endpoint);
+        }
+        return stats;
+    }
+
+    private static long micros(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    private static void record(RequestRpcs request, String rpc, long startNanos) {
+        long micros = micros(startNanos);
+        request.time(rpc, micros);
+        getStats(request.endpoint).getRpc(rpc).record(micros);
+    }
+
+    private static class AccountingDelegate implements Delegate<Environment> {
+        private final Delegate<Environment> delegate;
+
+        private AccountingDelegate(Delegate<Environment> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public byte[] makeSyncCall(Environment environment, String packageName,
+                                   String methodName, byte[] request) throws ApiProxyException {
+            RequestRpcs current = CURRENT.get();
+            if (current == null) {
+                return delegate.makeSyncCall(environment, packageName, methodName, request);
+            }
+            String rpc = packageName + "." + methodName;
+            current.count(rpc);
+            long startNanos = System.nanoTime();
+            try {
+                return delegate.makeSyncCall(environment, packageName, methodName, request);
+            } finally {
+                record(current, rpc, startNanos);
+            }
+        }
+
+        @Override
+        public Future<byte[]> makeAsyncCall(Environment environment, String packageName,
+                                            String methodName, byte[] request,
+                                            ApiConfig apiConfig) {
+            RequestRpcs current = CURRENT.get();
+            if (current == null) {
+                return delegate.makeAsyncCall(environment, packageName, methodName, request,
+                        apiConfig);
+            }
+            String rpc = packageName + "." + methodName;
+            current.count(rpc);
+            return new TimedFuture(delegate.makeAsyncCall(environment, packageName, methodName,
+                    request, apiConfig), current, rpc, System.nanoTime());
+        }
+
+        @Override
+        public void log(Environment environment, LogRecord record) {
+            delegate.log(environment, record);
+        }
+
+        @Override
+        public void flushLogs(Environment environment) {
+            delegate.flushLogs(environment);
+        }
+
+        @Override
+        public List<Thread> getRequestThreads(Environment environment) {
+            return delegate.getRequestThreads(environment);
+        }
+    }
+
+    /**
+     * Times an async call until its result, or its failure, is first read.
+     */
+    private static class TimedFuture implements Future<byte[]> {
+        private final Future<byte[]> future;
+        private final RequestRpcs request;
+        private final String rpc;
+        private final long startNanos;
+        private final AtomicBoolean timed = new AtomicBoolean();
+
+        private TimedFuture(Future<byte[]> future, RequestRpcs request, String rpc,
+                            long startNanos) {
+            this.future = future;
+            this.request = request;
+            this.rpc = rpc;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public byte[] get() throws InterruptedException, ExecutionException {
+            try {
+                byte[] result = future.get();
+                done();
+                return result;
+            } catch (ExecutionException e) {
+                done();
+                throw e;
+            }
+        }
+
+        @Override
+        public byte[] get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                byte[] result = future.get(timeout, unit);
+                done();
+                return result;
+            } catch (ExecutionException e) {
+                done();
+                throw e;
+            }
+        }
+
+        private void done() {
+            if (timed.compareAndSet(false, true)) {
+                record(request, rpc, startNanos);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.isDone();
+        }
+    }
+}
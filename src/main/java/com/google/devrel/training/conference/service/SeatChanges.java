@@ -0,0 +1,367 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.AppliedSeatChange;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.SeatChange;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Two-phase registration, so that every transaction stays in a single entity group.
+ *
+ * The first phase books or gives back a seat in the entity group that holds it, one SeatShard
+ * or else the Conference, and records a SeatChange along with it. The second phase checks the
+ * Registration again in the attendee's group, and updates it if it is not already as the
+ * change asks. Otherwise another request got there first, and the seat is put back. Then the
+ * SeatChange is deleted in the seat's group.
+ *
+ * The request applies the change right after the first phase commits; a task added in the
+ * first transaction applies it again later, in case the request died in between. An
+ * AppliedSeatChange in the attendee's group makes applying the same change twice harmless; it
+ * is kept for a while after the change is gone, for appliers that loaded the change just before.
+ */
+public class SeatChanges {
+
+    private static final Logger LOG = Logger.getLogger(SeatChanges.class.getName());
+
+    /**
+     * How long the recovery task waits, leaving the request time to apply the change itself.
+     */
+    private static final long RECOVERY_DELAY_MILLIS = 60 * 1000;
+
+    /**
+     * How long an AppliedSeatChange is kept, far longer than an applier may take.
+     */
+    private static final long APPLIED_TTL_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static final int PURGE_BATCH_SIZE = 500;
+
+    /**
+     * The outcome of applying a SeatChange.
+     */
+    public enum Outcome {
+        /**
+         * The Registration has been updated.
+         */
+        APPLIED,
+        /**
+         * The Registration already was as the change asked, so the seat has been put back.
+         */
+        REVERTED,
+        /**
+         * The change had already been applied or reverted by someone else.
+         */
+        FINISHED
+    }
+
+    /**
+     * What happened to a SeatChange in its own entity group.
+     */
+    private enum Finish {
+        DONE,
+        /**
+         * The seat given back could not be booked again in its group, which has sold it since.
+         */
+        SEAT_LOST,
+        GONE
+    }
+
+    /**
+     * Books a seat for the user, in a transaction on a single SeatShard or on the Conference,
+     * and records the change along with it. Call apply() once it returns.
+     *
+     * @param conference the Conference.
+     * @param userId the userId of the attendee.
+     * @param requestId the request id chosen by the client, null if there is none.
+     * @return the key of the change, null when there are no seats available.
+     */
+    public static Key<SeatChange> book(Conference conference, String userId, String requestId) {
+        return change(conference, userId, SeatChange.Type.REGISTER, requestId);
+    }
+
+    /**
+     * Gives back a seat for the user, in a transaction on a single SeatShard or on the
+     * Conference, and records the change along with it. Call apply() once it returns.
+     *
+     * @param conference the Conference.
+     * @param userId the userId of the attendee.
+     * @param requestId the request id chosen by the client, null if there is none.
+     * @return the key of the change, null when the Conference has no booked seat to give back.
+     */
+    public static Key<SeatChange> giveBack(Conference conference, String userId,
+                                           String requestId) {
+        return change(conference, userId, SeatChange.Type.UNREGISTER, requestId);
+    }
+
+    private static Key<SeatChange> change(final Conference conference, final String userId,
+                                          final SeatChange.Type type, final String requestId) {
+        final boolean book = type == SeatChange.Type.REGISTER;
+        final String name = getMethod(type);
+        if (conference.getSeatShardCount() == 0) {
+            return Transactions.run(name, new Work<Key<SeatChange>>() {
+                @Override
+                public Key<SeatChange> run() {
+                    Conference current = ofy().load().key(conference.getKey()).now();
+                    if (current == null || !adjustSeat(current, book)) {
+                        return null;
+                    }
+                    ofy().save().entity(current);
+                    return record(current.getKey(), current.getKey(), userId, type,
+                            requestId);
+                }
+            });
+        }
+        // Try the shards one transaction at a time, so no transaction spans two of them.
+        for (final Key<SeatShard> shardKey : SeatCounter.getUsableShards(conference, book)) {
+            Key<SeatChange> changeKey = Transactions.run(name, new Work<Key<SeatChange>>() {
+                @Override
+                public Key<SeatChange> run() {
+                    SeatShard shard = ofy().load().key(shardKey).now();
+                    if (shard == null || !adjustSeat(shard, book)) {
+                        return null;
+                    }
+                    ofy().save().entity(shard);
+                    return record(shardKey, conference.getKey(), userId, type, requestId);
+                }
+            });
+            if (changeKey != null) {
+                return changeKey;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Books or gives back one seat of a SeatShard or an unsharded Conference.
+     *
+     * @return false when there is no seat to book or to give back.
+     */
+    private static boolean adjustSeat(Object seats, boolean book) {
+        if (seats instanceof SeatShard) {
+            SeatShard shard = (SeatShard) seats;
+            if (book ? shard.getSeatsAvailable() <= 0
+                    : shard.getSeatsAvailable() >= shard.getCapacity()) {
+                return false;
+            }
+            if (book) {
+                shard.bookSeats(1);
+            } else {
+                shard.giveBackSeats(1);
+            }
+        } else {
+            Conference conference = (Conference) seats;
+            int seatsAvailable = conference.getSeatsAvailable();
+            if (book ? seatsAvailable <= 0 : seatsAvailable >= conference.getMaxAttendees()) {
+                return false;
+            }
+            if (book) {
+                conference.bookSeats(1);
+            } else {
+                conference.giveBackSeats(1);
+            }
+            NearlySoldOutIndex.seatsChanged(conference, seatsAvailable);
+        }
+        return true;
+    }
+
+    /**
+     * Records a change in the entity group of its seat, and adds the task that applies it if
+     * the request does not. This method must be called inside the transaction that books or
+     * gives back the seat.
+     */
+    private static Key<SeatChange> record(Key<?> seatKey, Key<Conference> conferenceKey,
+                                          String userId, SeatChange.Type type,
+                                          String requestId) {
+        Key<SeatChange> changeKey = ofy().factory().allocateId(seatKey, SeatChange.class);
+        ofy().save().entity(new SeatChange(changeKey, conferenceKey, userId, type, requestId));
+        QueueFactory.getDefaultQueue().add(ofy().getTransaction(), TaskOptions.Builder
+                .withUrl("/tasks/apply_seat_change")
+                .param("websafeSeatChangeKey", changeKey.getString())
+                .countdownMillis(RECOVERY_DELAY_MILLIS));
+        return changeKey;
+    }
+
+    /**
+     * Returns the name of the API method that makes a change, under which its outcome is saved.
+     */
+    private static String getMethod(SeatChange.Type type) {
+        return type == SeatChange.Type.REGISTER
+                ? "registerForConference" : "unregisterFromConference";
+    }
+
+    /**
+     * Updates the Registration for a change, or puts its seat back when the Registration already
+     * is as the change asks, and deletes the change. This method must be called outside any
+     * transaction.
+     *
+     * The outcome of the request that made the change is saved in the same transaction as the
+     * Registration, unless the seat is put back for a retry of a request whose outcome is
+     * already saved. The caller finds the outcome with RequestOutcomes.find().
+     *
+     * @param changeKey the key of the change.
+     * @param newProfile the Profile to save along with the Registration if the attendee has none
+     *     yet; an existing Profile is always loaded again. Null to register without a Profile.
+     * @return the outcome of the change.
+     */
+    public static Outcome apply(final Key<SeatChange> changeKey, final Profile newProfile) {
+        final SeatChange change = ofy().load().key(changeKey).now();
+        if (change == null) {
+            return Outcome.FINISHED;
+        }
+        final boolean register = change.getType() == SeatChange.Type.REGISTER;
+        final String userId = change.getUserId();
+        final String websafeConferenceKey = change.getConferenceKey().getString();
+        final Key<Profile> profileKey = Key.create(Profile.class, userId);
+        final Key<AppliedSeatChange> appliedKey =
+                AppliedSeatChange.createKey(profileKey, changeKey);
+
+        // Check and update the Registration in the attendee's entity group
+        AppliedSeatChange applied = Transactions.run("applySeatChange",
+                new Work<AppliedSeatChange>() {
+            @Override
+            public AppliedSeatChange run() {
+                AppliedSeatChange applied = ofy().load().key(appliedKey).now();
+                if (applied != null) {
+                    return applied;
+                }
+                Profile profile = ofy().load().key(profileKey).now();
+                boolean attending = (profile != null
+                        && profile.hasLegacyConferenceKey(websafeConferenceKey))
+                        || ofy().load().key(Registration.createKey(userId,
+                        websafeConferenceKey)).now() != null;
+                boolean reverted = attending == register;
+                if (reverted) {
+                    LOG.info("Putting back the seat of a duplicate " + change.getType()
+                            + " of " + userId + " for " + websafeConferenceKey);
+                } else if (register) {
+                    Profile attendee = profile != null ? profile : newProfile;
+                    if (attendee != null) {
+                        Attendance.register(attendee, websafeConferenceKey);
+                    } else {
+                        // The Registration is found by its key even without a Profile.
+                        ofy().save().entity(new Registration(userId, websafeConferenceKey));
+                    }
+                } else if (profile != null) {
+                    Attendance.unregister(profile, websafeConferenceKey);
+                } else {
+                    ofy().delete().key(Registration.createKey(userId, websafeConferenceKey));
+                }
+                saveOutcome(change, reverted);
+                applied = new AppliedSeatChange(profileKey, changeKey, reverted);
+                ofy().save().entity(applied);
+                return applied;
+            }
+        });
+
+        // Put the seat back if needed, and delete the change in the seat's entity group
+        final boolean reverted = applied.isReverted();
+        Finish finish = Transactions.run("finishSeatChange", new Work<Finish>() {
+            @Override
+            public Finish run() {
+                if (ofy().load().key(changeKey).now() == null) {
+                    return Finish.GONE;
+                }
+                ofy().delete().key(changeKey);
+                if (!reverted) {
+                    return Finish.DONE;
+                }
+                Object seats = ofy().load().key(change.getSeatKey()).now();
+                if (seats == null || !adjustSeat(seats, !register)) {
+                    return Finish.SEAT_LOST;
+                }
+                ofy().save().entity(seats);
+                return Finish.DONE;
+            }
+        });
+        if (finish == Finish.SEAT_LOST) {
+            rebookElsewhere(change);
+        }
+        if (finish == Finish.GONE) {
+            return Outcome.FINISHED;
+        }
+        // An unsharded Conference holds its own count, there is nothing to sync.
+        if (!reverted && change.getSeatKey().getKind().equals(Key.getKind(SeatShard.class))) {
+            SeatCounter.seatsChanged(websafeConferenceKey, register ? -1 : 1);
+        }
+        return reverted ? Outcome.REVERTED : Outcome.APPLIED;
+    }
+
+    /**
+     * Saves the outcome of the request that made a change. A reverted change may come from a
+     * retry of a request that has already been applied; its outcome is kept then.
+     * This method must be called inside the transaction that applies the change.
+     */
+    private static void saveOutcome(SeatChange change, boolean reverted) {
+        String method = getMethod(change.getType());
+        String userId = change.getUserId();
+        boolean register = change.getType() == SeatChange.Type.REGISTER;
+        if (!reverted) {
+            RequestOutcomes.save(userId, method, change.getRequestId(), "OK",
+                    register ? "Registration successful" : "Un-registration successful");
+        } else if (RequestOutcomes.find(userId, method, change.getRequestId()) == null) {
+            RequestOutcomes.save(userId, method, change.getRequestId(),
+                    register ? "ALREADY_REGISTERED" : "NOT_REGISTERED",
+                    register ? "Already registered" : "User not registered");
+        }
+    }
+
+    /**
+     * Deletes the records of the changes applied long ago, with a keys-only query.
+     *
+     * @return the number of records deleted.
+     */
+    public static int purgeApplied() {
+        Date expired = new Date(System.currentTimeMillis() - APPLIED_TTL_MILLIS);
+        int deleted = 0;
+        List<Key<AppliedSeatChange>> keys;
+        do {
+            keys = ofy().load().type(AppliedSeatChange.class)
+                    .filter("appliedAt <", expired)
+                    .limit(PURGE_BATCH_SIZE)
+                    .keys().list();
+            ofy().delete().keys(keys).now();
+            deleted += keys.size();
+        } while (keys.size() == PURGE_BATCH_SIZE);
+        LOG.info("Purged " + deleted + " applied seat changes");
+        return deleted;
+    }
+
+    /**
+     * Books the seat of a reverted unregistration from another shard, since its own shard has
+     * sold the seat given back in the meantime.
+     */
+    private static void rebookElsewhere(SeatChange change) {
+        Conference conference = ofy().load().key(change.getConferenceKey()).now();
+        if (conference != null && conference.getSeatShardCount() > 0) {
+            for (final Key<SeatShard> shardKey : SeatCounter.getUsableShards(conference, true)) {
+                boolean booked = Transactions.run("finishSeatChange", new Work<Boolean>() {
+                    @Override
+                    public Boolean run() {
+                        SeatShard shard = ofy().load().key(shardKey).now();
+                        if (shard == null || !adjustSeat(shard, true)) {
+                            return false;
+                        }
+                        ofy().save().entity(shard);
+                        return true;
+                    }
+                });
+                if (booked) {
+                    return;
+                }
+            }
+        }
+        LOG.severe("Conference " + change.getConferenceKey().getString() + " is oversold by "
+                + "one seat, given back by a duplicate unregistration of " + change.getUserId());
+    }
+}
@@ -0,0 +1,360 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.SeatShard;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.util.ResultCache;
+import com.googlecode.objectify.util.ResultNow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Sharded seat counter for Conferences.
+ *
+ * The seats of a Conference are split over several SeatShard entities. Registrations book a seat
+ * from a random shard, and the total number of available seats is served from a sum that is
+ * cached in memcache and adjusted after every booking.
+ */
+public class SeatCounter {
+
+    private static final Logger LOG = Logger.getLogger(SeatCounter.class.getName());
+
+    /**
+     * The number of seats a single shard owns before we add another shard.
+     */
+    public static final int SEATS_PER_SHARD = 50;
+
+    /**
+     * The maximum number of shards per Conference.
+     *
+     * The shards are created in the same transaction as the Conference, and a transaction can
+     * touch at most 25 entity groups.
+     */
+    public static final int MAX_SHARDS = 20;
+
+    /**
+     * The maximum number of shards a batch booking may touch, so that batch bookings leave room
+     * for the Profile entity groups in the same transaction.
+     */
+    public static final int MAX_SHARDS_PER_BOOKING = 4;
+
+    /**
+     * How long the cached sum may live before it is recomputed from the shards.
+     */
+    private static final int CACHED_SUM_EXPIRATION_SECONDS = 60;
+
+    /**
+     * The length of the window in which seat changes are coalesced into a single snapshot update.
+     */
+    private static final long SYNC_WINDOW_MILLIS = 10 * 1000;
+
+    private static final Random RANDOM = new Random();
+
+    /**
+     * Returns the number of shards to use for the given capacity.
+     *
+     * @param maxAttendees the capacity of the Conference.
+     * @return the number of shards, 0 when there are no seats at all.
+     */
+    public static int shardCountFor(int maxAttendees) {
+        int shardCount = (maxAttendees + SEATS_PER_SHARD - 1) / SEATS_PER_SHARD;
+        return Math.min(MAX_SHARDS, Math.max(0, shardCount));
+    }
+
+    /**
+     * Splits the seats of a new Conference over shards.
+     * The caller is responsible for saving the returned shards along with the Conference.
+     *
+     * @param conference a newly created Conference.
+     * @return the shards holding the seats of the Conference.
+     */
+    public static List<SeatShard> createShards(Conference conference) {
+        int maxAttendees = conference.getMaxAttendees();
+        int shardCount = shardCountFor(maxAttendees);
+        List<SeatShard> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            // Spread the remainder over the first shards.
+            int capacity = maxAttendees / shardCount + (i < maxAttendees % shardCount ? 1 : 0);
+            shards.add(new SeatShard(conference.getKey(), i, capacity));
+        }
+        conference.shardSeats(shardCount);
+        return shards;
+    }
+
+    private static List<Key<SeatShard>> getShardKeys(Conference conference) {
+        List<Key<SeatShard>> shardKeys = new ArrayList<>(conference.getSeatShardCount());
+        for (int i = 0; i < conference.getSeatShardCount(); i++) {
+            shardKeys.add(SeatShard.createKey(conference.getKey(), i));
+        }
+        return shardKeys;
+    }
+
+    /**
+     * Books up to the given number of seats, starting from a random shard and touching at most
+     * MAX_SHARDS_PER_BOOKING shards. This method must be called inside a transaction.
+     *
+     * @param conference a sharded Conference.
+     * @param number the number of seats to book.
+     * @return the number of seats actually booked, which is less than number when the shards
+     *     are nearly sold out.
+     */
+    public static int bookSeats(Conference conference, int number) {
+        return bookSeats(conference, number, MAX_SHARDS_PER_BOOKING);
+    }
+
+    /**
+     * Books up to the given number of seats, touching at most maxShards shards. The caller must
+     * leave room for the other entity groups of its transaction.
+     * This method must be called inside a transaction.
+     *
+     * @param conference a sharded Conference.
+     * @param number the number of seats to book.
+     * @param maxShards the maximum number of shards to touch, at most MAX_SHARDS.
+     * @return the number of seats actually booked.
+     */
+    public static int bookSeats(Conference conference, int number, int maxShards) {
+        return adjustRandomShards(conference, number, true, maxShards);
+    }
+
+    private static int adjustRandomShards(Conference conference, int number, boolean book,
+                                          int maxShards) {
+        List<Key<SeatShard>> shardKeys = getShardKeys(conference);
+        if (shardKeys.isEmpty()) {
+            return 0;
+        }
+        // Use a non-transactional snapshot to skip shards that cannot be used,
+        // so the transaction only enlists the shards it actually updates.
+        Map<Key<SeatShard>, SeatShard> snapshot =
+                ofy().transactionless().load().keys(shardKeys);
+        int start = RANDOM.nextInt(shardKeys.size());
+        int adjusted = 0;
+        int shardsTouched = 0;
+        for (int i = 0; i < shardKeys.size() && adjusted < number
+                && shardsTouched < maxShards; i++) {
+            Key<SeatShard> shardKey = shardKeys.get((start + i) % shardKeys.size());
+            if (!isUsable(snapshot.get(shardKey), book)) {
+                continue;
+            }
+            SeatShard shard = ofy().load().key(shardKey).now();
+            shardsTouched++;
+            if (!isUsable(shard, book)) {
+                continue;
+            }
+            int seats;
+            if (book) {
+                seats = Math.min(number - adjusted, shard.getSeatsAvailable());
+                shard.bookSeats(seats);
+            } else {
+                seats = Math.min(number - adjusted,
+                        shard.getCapacity() - shard.getSeatsAvailable());
+                shard.giveBackSeats(seats);
+            }
+            ofy().save().entity(shard);
+            adjusted += seats;
+        }
+        return adjusted;
+    }
+
+    /**
+     * Returns the shards that can book a seat, or give one back, according to a
+     * non-transactional snapshot, starting from a random shard. Trying them one transaction
+     * at a time keeps each transaction in the entity group of a single shard.
+     *
+     * @param conference a sharded Conference.
+     * @param book true for the shards with seats available, false for the ones with booked seats.
+     * @return the keys of the shards, in the order to try them.
+     */
+    public static List<Key<SeatShard>> getUsableShards(Conference conference, boolean book) {
+        List<Key<SeatShard>> shardKeys = getShardKeys(conference);
+        List<Key<SeatShard>> usable = new ArrayList<>(shardKeys.size());
+        if (shardKeys.isEmpty()) {
+            return usable;
+        }
+        Map<Key<SeatShard>, SeatShard> snapshot =
+                ofy().transactionless().load().keys(shardKeys);
+        int start = RANDOM.nextInt(shardKeys.size());
+        for (int i = 0; i < shardKeys.size(); i++) {
+            Key<SeatShard> shardKey = shardKeys.get((start + i) % shardKeys.size());
+            if (isUsable(snapshot.get(shardKey), book)) {
+                usable.add(shardKey);
+            }
+        }
+        return usable;
+    }
+
+    private static boolean isUsable(SeatShard shard, boolean book) {
+        if (shard == null) {
+            return false;
+        }
+        return book ? shard.getSeatsAvailable() > 0
+                : shard.getSeatsAvailable() < shard.getCapacity();
+    }
+
+    /**
+     * Sums up the available seats of all the shards of a Conference.
+     *
+     * @param conference a sharded Conference.
+     * @return the number of seats currently available.
+     */
+    public static int sumShards(Conference conference) {
+        int seatsAvailable = 0;
+        for (SeatShard shard : ofy().transactionless().load()
+                .keys(getShardKeys(conference)).values()) {
+            seatsAvailable += shard.getSeatsAvailable();
+        }
+        return seatsAvailable;
+    }
+
+    private static String getCacheKey(String websafeConferenceKey) {
+        return Constants.MEMCACHE_SEATS_AVAILABLE_PREFIX + websafeConferenceKey;
+    }
+
+    /**
+     * Returns the number of available seats of a sharded Conference from the cached sum.
+     *
+     * @param conference a sharded Conference.
+     * @return the number of seats currently available.
+     */
+    public static int getSeatsAvailable(Conference conference) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String cacheKey = getCacheKey(conference.getWebsafeKey());
+        Object cached = memcacheService.get(cacheKey);
+        if (cached != null) {
+            return ((Number) cached).intValue();
+        }
+        int seatsAvailable = sumShards(conference);
+        // Don't overwrite a sum that has been put and adjusted in the meantime.
+        memcacheService.put(cacheKey, (long) seatsAvailable,
+                Expiration.byDeltaSeconds(CACHED_SUM_EXPIRATION_SECONDS),
+                SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        return seatsAvailable;
+    }
+
+    /**
+     * Starts looking up the cached sums of the given Conferences with one memcache batch get.
+     * Pass the result to attachSeatsAvailable once the other lookups of the response are started.
+     *
+     * @param websafeConferenceKeys the websafe keys of the Conferences.
+     * @return the pending cached sums, by memcache key.
+     */
+    public static Result<Map<String, Object>> loadSeatsAvailable(
+            Collection<String> websafeConferenceKeys) {
+        if (websafeConferenceKeys.isEmpty()) {
+            return new ResultNow<>(Collections.<String, Object>emptyMap());
+        }
+        List<String> cacheKeys = new ArrayList<>(websafeConferenceKeys.size());
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            cacheKeys.add(getCacheKey(websafeConferenceKey));
+        }
+        final Future<Map<String, Object>> cached = MemcacheServiceFactory
+                .getAsyncMemcacheService().getAll(cacheKeys);
+        return new ResultCache<Map<String, Object>>() {
+            @Override
+            protected Map<String, Object> nowUncached() {
+                try {
+                    return cached.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // Treat it as a miss; the sums are recomputed from the shards.
+                    LOG.warning("Failed to look up the cached sums: " + e);
+                    return Collections.emptyMap();
+                }
+            }
+        };
+    }
+
+    /**
+     * Attaches the available seats to all the sharded Conferences of a response, so serializing
+     * them doesn't look up each sum separately. The sums missing from memcache are recomputed
+     * from the shards of all those Conferences with one batch get.
+     *
+     * @param conferences the Conferences of a response.
+     * @param cached the result of loadSeatsAvailable, which may include other Conferences.
+     * @return the given conferences, for method chaining.
+     */
+    public static <T extends Iterable<Conference>> T attachSeatsAvailable(T conferences,
+            Result<Map<String, Object>> cached) {
+        List<Conference> misses = new ArrayList<>();
+        List<Key<SeatShard>> shardKeys = new ArrayList<>();
+        for (Conference conference : conferences) {
+            if (conference.getSeatShardCount() == 0) {
+                continue;
+            }
+            Object sum = cached.now().get(getCacheKey(conference.getWebsafeKey()));
+            if (sum != null) {
+                conference.attachSeatsAvailable(((Number) sum).intValue());
+            } else {
+                misses.add(conference);
+                shardKeys.addAll(getShardKeys(conference));
+            }
+        }
+        if (misses.isEmpty()) {
+            return conferences;
+        }
+        Map<Key<SeatShard>, SeatShard> shards = ofy().transactionless().load().keys(shardKeys);
+        Map<String, Long> sums = new HashMap<>();
+        for (Conference conference : misses) {
+            int seatsAvailable = 0;
+            for (Key<SeatShard> shardKey : getShardKeys(conference)) {
+                if (shards.containsKey(shardKey)) {
+                    seatsAvailable += shards.get(shardKey).getSeatsAvailable();
+                }
+            }
+            conference.attachSeatsAvailable(seatsAvailable);
+            sums.put(getCacheKey(conference.getWebsafeKey()), (long) seatsAvailable);
+        }
+        // Don't overwrite sums that have been put and adjusted in the meantime.
+        MemcacheServiceFactory.getMemcacheService().putAll(sums,
+                Expiration.byDeltaSeconds(CACHED_SUM_EXPIRATION_SECONDS),
+                SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        return conferences;
+    }
+
+    /**
+     * Adjusts the cached sum after a booking has been committed, and schedules an update of the
+     * seatsAvailable snapshot stored in the Conference entity. Only for a sharded Conference;
+     * an unsharded one keeps its count up to date itself.
+     *
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param delta the change of the number of available seats.
+     */
+    public static void seatsChanged(String websafeConferenceKey, int delta) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        // This is a no-op when the sum is not cached; the next read recomputes it.
+        memcacheService.increment(getCacheKey(websafeConferenceKey), delta);
+
+        // All the changes in the same window share one task, so the Conference entity
+        // is written at most once per window.
+        long now = System.currentTimeMillis();
+        long window = now / SYNC_WINDOW_MILLIS;
+        Queue queue = QueueFactory.getDefaultQueue();
+        try {
+            queue.add(TaskOptions.Builder.withUrl("/tasks/sync_seats")
+                    .taskName("sync-seats-" + websafeConferenceKey + "-" + window)
+                    .countdownMillis((window + 1) * SYNC_WINDOW_MILLIS - now)
+                    .param("websafeConferenceKey", websafeConferenceKey));
+        } catch (TaskAlreadyExistsException e) {
+            LOG.fine("Seats sync already scheduled for " + websafeConferenceKey);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.googlecode.objectify.Work;
+
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the transactions of the endpoints, retrying the ones that lose to a concurrent
+ * transaction on the same entity group.
+ *
+ * A transaction failing with a ConcurrentModificationException is retried after a jittered
+ * exponential backoff, so the contending requests spread out instead of colliding again, until
+ * MAX_ATTEMPTS or DEADLINE_MILLIS. Any other exception is a bug and is thrown right away.
+ * The attempts, conflicts and commit latency are counted per transaction name.
+ */
+public class Transactions {
+
+    private static final Logger LOG = Logger.getLogger(Transactions.class.getName());
+
+    private static final int MAX_ATTEMPTS = 6;
+
+    /**
+     * The time after which a transaction that lost to another one is not retried any more.
+     */
+    private static final long DEADLINE_MILLIS = 5 * 1000;
+
+    /**
+     * The backoff after the first conflict, doubled after every further conflict.
+     */
+    private static final long INITIAL_BACKOFF_MILLIS = 20;
+
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private static final Random RANDOM = new Random();
+
+    /**
+     * Thrown when a transaction still loses to concurrent transactions after all its attempts.
+     */
+    public static class ContentionException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private ContentionException(String name, int attempts, Throwable cause) {
+            super("Transaction " + name + " gave up after " + attempts + " attempts", cause);
+        }
+    }
+
+    /**
+     * The counters of the transactions with the same name, since the instance started.
+     */
+    public static class Stats {
+        private final AtomicLong attempts = new AtomicLong();
+        private final AtomicLong conflicts = new AtomicLong();
+        private final AtomicLong commits = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong commitMillis = new AtomicLong();
+
+        public long getAttempts() {
+            return attempts.get();
+        }
+
+        public long getConflicts() {
+            return conflicts.get();
+        }
+
+        public long getCommits() {
+            return commits.get();
+        }
+
+        /**
+         * Returns the number of transactions that gave up or threw another exception.
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * Returns the total time of the committed transactions, retries included.
+         */
+        public long getCommitMillis() {
+            return commitMillis.get();
+        }
+
+        @Override
+        public String toString() {
+            return "attempts=" + getAttempts() + " conflicts=" + getConflicts() + " commits="
+                    + getCommits() + " failures=" + getFailures() + " commitMillis="
+                    + getCommitMillis();
+        }
+    }
+
+    private static final ConcurrentMap<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the work in a new transaction, retrying it when it loses to a concurrent one.
+     * The work may run several times, so it must not have side effects outside the datastore.
+     *
+     * @param name the name the attempts are counted under, e.g. the endpoint.
+     * @param work the work to run.
+     * @return what the work returned in the attempt that committed.
+     * @throws ContentionException when all the attempts lost to concurrent transactions.
+     */
+    public static <R> R run(String name, Work<R> work) {
+        Stats stats = getStats(name);
+        long start = System.currentTimeMillis();
+        for (int attempt = 1; ; attempt++) {
+            stats.attempts.incrementAndGet();
+            try {
+                // Objectify retries a conflict while the limit, decremented, is still positive;
+                // a limit of 0 runs the work exactly once and leaves the retries to this loop.
+                R result = ofy().transactNew(0, work);
+                stats.commits.incrementAndGet();
+                stats.commitMillis.addAndGet(System.currentTimeMillis() - start);
+                return result;
+            } catch (ConcurrentModificationException e) {
+                stats.conflicts.incrementAndGet();
+                long backoffMillis = RANDOM.nextInt((int) Math.min(MAX_BACKOFF_MILLIS,
+                        INITIAL_BACKOFF_MILLIS << (attempt - 1)) + 1);
+                if (attempt >= MAX_ATTEMPTS || System.currentTimeMillis() + backoffMillis
+                        - start > DEADLINE_MILLIS) {
+                    stats.failures.incrementAndGet();
+                    throw new ContentionException(name, attempt, e);
+                }
+                LOG.fine("Transaction " + name + " lost attempt " + attempt + ", retrying in "
+                        + backoffMillis + "ms");
+                sleep(backoffMillis);
+            } catch (RuntimeException e) {
+                stats.failures.incrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.log(Level.FINE, "Interrupted while backing off", e);
+        }
+    }
+
+    private static Stats getStats(String name) {
+        Stats stats = STATS.get(name);
+        if (stats == null) {
+            STATS.putIfAbsent(name, new Stats());
+            stats = STATS.get(name);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the counters of the instance, by transaction name.
+     */
+    public static Map<String, Stats> getStats() {
+        return new TreeMap<>(STATS);
+    }
+}
@@ -0,0 +1,28 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.SeatChange;
+import com.google.devrel.training.conference.service.SeatChanges;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for updating the Registration of a registration or unregistration whose request
+ * died after booking or giving back the seat. It does nothing when the change has been applied.
+ */
+@SuppressWarnings("serial")
+public class ApplySeatChangeServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Key<SeatChange> changeKey = Key.create(request.getParameter("websafeSeatChangeKey"));
+        SeatChanges.apply(changeKey, null);
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,30 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.ReservationQueue;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for deciding the pending reservations of a Conference in reservation queue mode.
+ */
+@SuppressWarnings("serial")
+public class DrainReservationsServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Key<Conference> conferenceKey = Key.create(request.getParameter("websafeConferenceKey"));
+        if (ReservationQueue.drain(conferenceKey)) {
+            // Hand the rest over to a new task rather than running into the task deadline.
+            ReservationQueue.scheduleDrain(conferenceKey);
+        }
+        response.setStatus(204);
+    }
+}
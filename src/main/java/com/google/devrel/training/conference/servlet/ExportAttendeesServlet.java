@@ -0,0 +1,138 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.users.User;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.service.Attendance;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for exporting all the attendees of a Conference as CSV or JSON lines.
+ *
+ * The attendees are loaded and written chunk by chunk, so the size of the roster does not
+ * matter: at most one chunk of Profiles is held in memory.
+ */
+@SuppressWarnings("serial")
+public class ExportAttendeesServlet extends HttpServlet {
+
+    /**
+     * The number of attendees loaded with one batch get and written at once.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        User user = UserServiceFactory.getUserService().getCurrentUser();
+        if (user == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        Key<Conference> conferenceKey;
+        try {
+            conferenceKey = Key.create(request.getParameter("websafeConferenceKey"));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!user.getUserId().equals(conference.getOrganizerUserId())) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        boolean jsonLines = "jsonl".equals(request.getParameter("format"));
+        response.setCharacterEncoding("UTF-8");
+        response.setContentType(jsonLines ? "application/x-ndjson" : "text/csv");
+        response.setHeader("Content-Disposition", "attachment; filename=\"attendees-"
+                + conference.getId() + (jsonLines ? ".jsonl\"" : ".csv\""));
+        PrintWriter writer = response.getWriter();
+        if (!jsonLines) {
+            writer.print("userId,displayName,mainEmail,teeShirtSize\r\n");
+        }
+
+        List<Key<Profile>> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (Key<Registration> registrationKey : Attendance.queryAttendees(conferenceKey)
+                .chunk(CHUNK_SIZE).keys()) {
+            chunk.add(registrationKey.<Profile>getParent());
+            if (chunk.size() == CHUNK_SIZE) {
+                writeChunk(writer, chunk, jsonLines);
+                chunk.clear();
+            }
+        }
+        writeChunk(writer, chunk, jsonLines);
+    }
+
+    private static void writeChunk(PrintWriter writer, List<Key<Profile>> profileKeys,
+                                   boolean jsonLines) {
+        Map<Key<Profile>, Profile> profiles = ofy().load().keys(profileKeys);
+        for (Key<Profile> profileKey : profileKeys) {
+            Profile profile = profiles.get(profileKey);
+            if (profile == null) {
+                continue;
+            }
+            String teeShirtSize = profile.getTeeShirtSize() == null ? null
+                    : profile.getTeeShirtSize().name();
+            if (jsonLines) {
+                writer.print("{\"userId\":" + toJson(profile.getUserId())
+                        + ",\"displayName\":" + toJson(profile.getDisplayName())
+                        + ",\"mainEmail\":" + toJson(profile.getMainEmail())
+                        + ",\"teeShirtSize\":" + toJson(teeShirtSize) + "}\n");
+            } else {
+                writer.print(toCsv(profile.getUserId()) + "," + toCsv(profile.getDisplayName())
+                        + "," + toCsv(profile.getMainEmail()) + "," + toCsv(teeShirtSize)
+                        + "\r\n");
+            }
+        }
+        writer.flush();
+        // Don't keep the written Profiles in the session cache.
+        ofy().clear();
+    }
+
+    private static String toCsv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")
+                || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String toJson(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+}
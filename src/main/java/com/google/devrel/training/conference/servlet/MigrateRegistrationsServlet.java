@@ -0,0 +1,94 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.service.Transactions;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for moving the registrations stored in Profile entities to Registration entities.
+ * Each task migrates a page of Profiles and enqueues the next page.
+ */
+@SuppressWarnings("serial")
+public class MigrateRegistrationsServlet extends HttpServlet {
+
+    private static final Logger LOG =
+            Logger.getLogger(MigrateRegistrationsServlet.class.getName());
+
+    /**
+     * The number of Profiles read by a single task.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Query<Profile> query = ofy().load().type(Profile.class).limit(PAGE_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+        QueryResultIterator<Profile> iterator = query.iterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Profile profile = iterator.next();
+            count++;
+            if (!profile.getLegacyConferenceKeys().isEmpty()) {
+                try {
+                    migrate(profile.getUserId());
+                } catch (Transactions.ContentionException e) {
+                    // The task queue retries the page later; the Profiles migrated are skipped.
+                    LOG.log(Level.WARNING, "Could not migrate " + profile.getUserId(), e);
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    return;
+                }
+            }
+        }
+        if (count == PAGE_SIZE) {
+            Queue queue = QueueFactory.getDefaultQueue();
+            queue.add(TaskOptions.Builder.withUrl("/tasks/migrate_registrations")
+                    .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+        response.setStatus(204);
+    }
+
+    /**
+     * Moves the registrations of one Profile in a transaction on its entity group.
+     */
+    private static void migrate(final String userId) {
+        Transactions.run("migrateRegistrations", new VoidWork() {
+            @Override
+            public void vrun() {
+                Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+                List<Registration> registrations = new ArrayList<>();
+                for (String websafeConferenceKey
+                        : new ArrayList<>(profile.getLegacyConferenceKeys())) {
+                    registrations.add(new Registration(userId, websafeConferenceKey));
+                    profile.removeLegacyConferenceKey(websafeConferenceKey);
+                }
+                ofy().save().entities(registrations);
+                ofy().save().entity(profile);
+            }
+        });
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.SeatChanges;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for deleting the records of the seat changes applied long ago.
+ */
+@SuppressWarnings("serial")
+public class PurgeAppliedSeatChangesServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        SeatChanges.purgeApplied();
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,24 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.RequestOutcomes;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for deleting the request outcomes that are too old to be replayed.
+ */
+@SuppressWarnings("serial")
+public class PurgeRequestOutcomesServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        RequestOutcomes.purge();
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,25 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Announcements;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for republishing the announcement after Conferences have entered or left the
+ * NearlySoldOutIndex.
+ */
+@SuppressWarnings("serial")
+public class RefreshAnnouncementServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        Announcements.publish();
+        response.setStatus(204);
+    }
+}
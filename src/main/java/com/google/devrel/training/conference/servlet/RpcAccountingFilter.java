@@ -0,0 +1,73 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.RpcAccounting;
+import com.google.devrel.training.conference.service.RpcAccounting.RequestRpcs;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * A filter charging the API calls of each request to its endpoint, see RpcAccounting.
+ *
+ * A request making more than the maxRpcs init parameter calls, or taking longer than maxMillis,
+ * is logged with a summary of its calls.
+ */
+public class RpcAccountingFilter implements Filter {
+
+    private static final Logger LOG = Logger.getLogger(RpcAccountingFilter.class.getName());
+
+    private static final String SPI_PREFIX = "/_ah/spi/";
+
+    private long maxRpcs = 30;
+
+    private long maxMillis = 1000;
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        if (config.getInitParameter("maxRpcs") != null) {
+            maxRpcs = Long.parseLong(config.getInitParameter("maxRpcs"));
+        }
+        if (config.getInitParameter("maxMillis") != null) {
+            maxMillis = Long.parseLong(config.getInitParameter("maxMillis"));
+        }
+        RpcAccounting.install();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        RpcAccounting.begin(getEndpoint((HttpServletRequest) request));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestRpcs rpcs = RpcAccounting.end();
+            if (rpcs.getRpcCount() > maxRpcs || rpcs.getElapsedMillis() > maxMillis) {
+                LOG.warning(rpcs.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns the API method of an endpoints request, e.g. getConference, or else the path.
+     */
+    private static String getEndpoint(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        if (uri.startsWith(SPI_PREFIX)) {
+            return uri.substring(uri.lastIndexOf('.') + 1);
+        }
+        return uri;
+    }
+
+    @Override
+    public void destroy() {
+        RpcAccounting.uninstall();
+    }
+}
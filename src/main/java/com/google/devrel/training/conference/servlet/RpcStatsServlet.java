@@ -0,0 +1,47 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.LatencyHistogram;
+import com.google.devrel.training.conference.service.RpcAccounting;
+import com.google.devrel.training.conference.service.RpcAccounting.EndpointStats;
+import com.google.devrel.training.conference.service.Transactions;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for showing the API calls and latencies of each endpoint, and the transaction
+ * counters, since this instance started. Every instance keeps its own.
+ */
+@SuppressWarnings("serial")
+public class RpcStatsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        for (Map.Entry<String, EndpointStats> endpoint : RpcAccounting.getStats().entrySet()) {
+            EndpointStats stats = endpoint.getValue();
+            out.println(endpoint.getKey() + ": requests=" + stats.getRequests() + " "
+                    + stats.getLatency());
+            for (Map.Entry<String, LatencyHistogram> rpc : stats.getRpcs().entrySet()) {
+                long calls = stats.getCalls(rpc.getKey());
+                out.println(String.format("    %s: calls=%d perRequest=%.1f %s", rpc.getKey(),
+                        calls, (double) calls / Math.max(1, stats.getRequests()),
+                        rpc.getValue()));
+            }
+        }
+        out.println();
+        for (Map.Entry<String, Transactions.Stats> transaction
+                : Transactions.getStats().entrySet()) {
+            out.println("transaction " + transaction.getKey() + ": " + transaction.getValue());
+        }
+    }
+}
@@ -1,16 +1,9 @@
 package com.google.devrel.training.conference.servlet;
 
-import static com.google.devrel.training.conference.service.OfyService.ofy;
-
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
-import com.google.common.base.Joiner;
-import com.google.devrel.training.conference.Constants;
-import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.Announcements;
+import com.google.devrel.training.conference.service.NearlySoldOutIndex;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -20,7 +13,11 @@ import javax.servlet.http.HttpServletResponse;
 /**
  * A servlet for putting announcements in mem-cache.
  * The announcement announces conferences that are nearly sold out
- * (defined as having 1 - 5 seats left)
+ * (defined as having 1 - 4 seats left), as listed by the NearlySoldOutIndex.
+ * Add rebuild=true to rebuild the index first.
+ *
+ * The announcement is refreshed whenever the index changes, so this cron is only a safety net
+ * for memcache evictions.
  */
 @SuppressWarnings("serial")
 public class SetAnnouncementServlet extends HttpServlet {
@@ -29,34 +26,14 @@ public class SetAnnouncementServlet extends HttpServlet {
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
 
-        // Query for conferences with less than 5 seats left
-        Iterable<Conference> iterable = ofy().load().type(Conference.class)
-                                        .filter("seatsAvailable <", 5)
-                                        .filter("seatsAvailable >", 0);
-
-        // Iterate over the conferences with less than 5 seats less
-        // and get the name of each one
-        List<String> conferenceNames = new ArrayList<>(0);
-        for (Conference conference : iterable) {
-            conferenceNames.add(conference.getName());
+        if ("true".equals(request.getParameter("rebuild"))) {
+            // Recreate the index from scratch, e.g. after the data has been fixed by hand
+            NearlySoldOutIndex.rebuild();
         }
 
-        if (conferenceNames.size() > 0) {
-            // Build a String that announces the nearly sold-out conferences
-            StringBuilder announcementStringBuilder = new StringBuilder(
-                    "Last chance to attend! The following conferences are nearly sold out: ");
-            Joiner joiner = Joiner.on(", ").skipNulls();
-            announcementStringBuilder.append(joiner.join(conferenceNames));
-
-            // Get the Memcache Service
-            MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-
-            // Put the announcement String in mem-cache,
-            // keyed by Constants.MEMCACHE_ANNOUNCEMENTS_KEY
-            String announcementKey = Constants.MEMCACHE_ANNOUNCEMENTS_KEY;
-            String announcementText = announcementStringBuilder.toString();
-            memcacheService.put(announcementKey, announcementText);
-        }
+        // Put the announcement built from the index in mem-cache,
+        // keyed by Constants.MEMCACHE_ANNOUNCEMENTS_KEY
+        Announcements.publish();
 
         // Set the response status to 204 which means
         // the request was successful but there's no data to send back
@@ -0,0 +1,58 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.NearlySoldOutIndex;
+import com.google.devrel.training.conference.service.SeatCounter;
+import com.google.devrel.training.conference.service.Transactions;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for copying the sum of the seat shards into the seatsAvailable snapshot of a
+ * Conference, so queries on seatsAvailable see the bookings.
+ */
+@SuppressWarnings("serial")
+public class SyncSeatsServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(SyncSeatsServlet.class.getName());
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        final Key<Conference> conferenceKey =
+                Key.create(request.getParameter("websafeConferenceKey"));
+        VoidWork sync = new VoidWork() {
+            @Override
+            public void vrun() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference == null || conference.getSeatShardCount() == 0) {
+                    return;
+                }
+                int storedSeatsAvailable = conference.getStoredSeatsAvailable();
+                conference.syncSeatsAvailable(SeatCounter.sumShards(conference));
+                NearlySoldOutIndex.seatsChanged(conference, storedSeatsAvailable);
+                ofy().save().entity(conference).now();
+            }
+        };
+        try {
+            Transactions.run("syncSeats", sync);
+        } catch (Transactions.ContentionException e) {
+            // The task queue retries the task later.
+            LOG.log(Level.WARNING, "Could not sync the seats of " + conferenceKey, e);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,91 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.common.base.Objects;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.service.Transactions;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet for rewriting the organizer's display name stored in his/her conferences after the
+ * organizer has changed it.
+ */
+@SuppressWarnings("serial")
+public class UpdateOrganizerDisplayNameServlet extends HttpServlet {
+
+    private static final Logger LOG =
+            Logger.getLogger(UpdateOrganizerDisplayNameServlet.class.getName());
+
+    /**
+     * The number of conferences saved with a single batch put.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        final Key<Profile> profileKey =
+                Key.create(Profile.class, request.getParameter("userId"));
+        List<Key<Conference>> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            for (Key<Conference> conferenceKey : ofy().load().type(Conference.class)
+                    .ancestor(profileKey).keys()) {
+                batch.add(conferenceKey);
+                if (batch.size() == BATCH_SIZE) {
+                    updateBatch(profileKey, batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                updateBatch(profileKey, batch);
+            }
+        } catch (Transactions.ContentionException e) {
+            // The task queue retries the task later; the batches already updated are skipped.
+            LOG.log(Level.WARNING, "Could not update the conferences of " + profileKey, e);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        response.setStatus(204);
+    }
+
+    /**
+     * Rewrites a batch of conferences in one transaction, so concurrent seat updates are not lost.
+     * The conferences are all in the organizer's entity group.
+     */
+    private static void updateBatch(final Key<Profile> profileKey,
+                                    final List<Key<Conference>> conferenceKeys) {
+        Transactions.run("updateOrganizerDisplayName", new VoidWork() {
+            @Override
+            public void vrun() {
+                // Always use the current name, so tasks running out of order converge to it
+                Profile profile = ofy().load().key(profileKey).now();
+                if (profile == null) {
+                    return;
+                }
+                List<Conference> changed = new ArrayList<>(conferenceKeys.size());
+                for (Conference conference : ofy().load().keys(conferenceKeys).values()) {
+                    if (!Objects.equal(profile.getDisplayName(),
+                            conference.getOrganizerDisplayName())) {
+                        conference.attachOrganizer(profile);
+                        changed.add(conference);
+                    }
+                }
+                ofy().save().entities(changed).now();
+            }
+        });
+    }
+}
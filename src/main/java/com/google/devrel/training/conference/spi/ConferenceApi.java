@@ -3,35 +3,81 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.factory;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 
+import com.google.api.server.spi.config.AnnotationBoolean;
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
+import com.google.api.server.spi.config.ApiResourceProperty;
 import com.google.api.server.spi.config.Named;
+import com.google.api.server.spi.config.Nullable;
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
+import com.google.api.server.spi.response.ServiceUnavailableException;
 import com.google.api.server.spi.response.UnauthorizedException;
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.QueryResultList;
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.users.User;
+import com.google.common.collect.ImmutableSet;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Announcement;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.RegistrationResult;
+import com.google.devrel.training.conference.domain.RequestOutcome;
+import com.google.devrel.training.conference.domain.Reservation;
+import com.google.devrel.training.conference.domain.SeatChange;
+import com.google.devrel.training.conference.domain.SeatShard;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.form.RegistrationsForm;
+import com.google.devrel.training.conference.service.Announcements;
+import com.google.devrel.training.conference.service.Attendance;
+import com.google.devrel.training.conference.service.ConfirmationEmails;
+import com.google.devrel.training.conference.service.KeyCache;
+import com.google.devrel.training.conference.service.NearlySoldOutIndex;
+import com.google.devrel.training.conference.service.OfyService;
+import com.google.devrel.training.conference.service.OrganizerLoader;
+import com.google.devrel.training.conference.service.QueryCache;
+import com.google.devrel.training.conference.service.RequestOutcomes;
+import com.google.devrel.training.conference.service.ReservationQueue;
+import com.google.devrel.training.conference.service.SeatChanges;
+import com.google.devrel.training.conference.service.SeatCounter;
+import com.google.devrel.training.conference.service.Transactions;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -42,6 +88,34 @@ import java.util.List;
         description = "API for the Conference Central Backend application.")
 public class ConferenceApi {
 
+    private static final Logger LOG = Logger.getLogger(ConferenceApi.class.getName());
+
+    /**
+     * The number of registrations committed in one transaction by registerForConferences.
+     * Each registration enlists the entity group of a Profile, and a transaction can touch at
+     * most 25 entity groups, some of which are needed for the Conference or its seat shards.
+     */
+    private static final int REGISTRATIONS_PER_TRANSACTION = 20;
+
+    private static final String REGISTRATION_SUCCESSFUL = "Registration successful";
+
+    /**
+     * The reasons of the batch registrations that may succeed on a retry.
+     */
+    private static final Set<String> TRANSIENT_REASONS =
+            ImmutableSet.of("Too much contention", "Unknown exception");
+
+    /**
+     * The default number of attendees returned by getConferenceAttendees.
+     */
+    private static final int DEFAULT_ATTENDEES_PAGE_SIZE = 100;
+
+    /**
+     * The maximum number of attendees returned by getConferenceAttendees, bounded by the
+     * number of keys a batch get can load.
+     */
+    private static final int MAX_ATTENDEES_PAGE_SIZE = 1000;
+
     /*
      * Get the display name from the user's email. For example, if the email is
      * lemoncake@example.com, then the display name becomes "lemoncake."
@@ -75,6 +149,7 @@ public class ConferenceApi {
         String mainEmail = null;
         String displayName = "Your name will go here";
         TeeShirtSize teeShirtSize = TeeShirtSize.NOT_SPECIFIED;
+        boolean renamed = false;
 
         // If the user is not logged in, throw an UnauthorizedException
         if(user == null)
@@ -105,13 +180,23 @@ public class ConferenceApi {
         } else {
             // The Profile already exists
             // Update the Profile entity
+            String oldDisplayName = profile.getDisplayName();
             profile.update(displayName, teeShirtSize);
+            renamed = !Objects.equals(profile.getDisplayName(), oldDisplayName);
         }
 
         // Save the Profile entity in the datastore
         ofy().save().entities(profile).now();
 
-        // Return the profile
+        if (renamed) {
+            // Rewrite the organizer name stored in the user's conferences in the background
+            Queue queue = QueueFactory.getDefaultQueue();
+            queue.add(TaskOptions.Builder.withUrl("/tasks/update_organizer_display_name")
+                    .param("userId", userId));
+        }
+
+        // Return the profile, with the user's registrations attached
+        profile.attachConferenceKeysToAttend(Attendance.getConferenceKeysToAttend(profile));
         return profile;
     }
 
@@ -131,10 +216,15 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
 
-        // load the Profile Entity
+        // load the Profile Entity, along with the keys of the user's registrations
         String userId = user.getUserId();
+        Iterator<Key<Registration>> registrationKeys = Attendance.startRegistrationQuery(userId);
         Key key = Key.create(Profile.class, userId);
-        Profile profile = (Profile) ofy().load().key(key).now();
+        Profile profile = (Profile) OfyService.loadCached(key);
+        if (profile != null) {
+            profile.attachConferenceKeysToAttend(
+                    Attendance.getConferenceKeysToAttend(profile, registrationKeys));
+        }
         return profile;
     }
 
@@ -146,8 +236,8 @@ public class ConferenceApi {
      */
     private static Profile getProfileFromUser(User user) {
         // First fetch the user's Profile from the datastore.
-        Profile profile = ofy().load().key(
-                Key.create(Profile.class, user.getUserId())).now();
+        // Inside a transaction this bypasses the per-instance cache.
+        Profile profile = OfyService.loadCached(Key.create(Profile.class, user.getUserId()));
         if (profile == null) {
             // Create a new Profile if it doesn't exist.
             // Use default displayName and teeShirtSize
@@ -163,73 +253,183 @@ public class ConferenceApi {
      *
      * @param user A user who invokes this method, null when the user is not signed in.
      * @param conferenceForm A ConferenceForm object representing user's inputs.
+     * @param requestId An id chosen by the client, so a retry returns the Conference created by
+     *     the first attempt instead of creating another one; null if the client doesn't retry.
      * @return A newly created Conference Object.
      * @throws UnauthorizedException when the user is not signed in.
+     * @throws BadRequestException when the requestId is malformed.
      */
     @ApiMethod(name = "createConference", path = "conference", httpMethod = HttpMethod.POST)
-    public Conference createConference(final User user, final ConferenceForm conferenceForm)
-            throws UnauthorizedException {
+    public Conference createConference(final User user, final ConferenceForm conferenceForm,
+            @Nullable @Named("requestId") final String requestId)
+            throws UnauthorizedException, BadRequestException {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        checkRequestId(requestId);
         // Get the userId of the logged in User
         final String userId = user.getUserId();
+        // Return the Conference created by an earlier attempt of this request
+        RequestOutcome outcome = RequestOutcomes.find(userId, "createConference", requestId);
+        if (outcome != null) {
+            return OfyService.loadCached(KeyCache.<Conference>parse(outcome.getResult()));
+        }
         // Get the key for the User's Profile
         Key<Profile> profileKey = Key.create(Profile.class, userId);
         // Allocate a key for the conference -- let App Engine allocate the ID
         final Key<Conference> conferenceKey = factory().allocateId(profileKey, Conference.class);
         // Get the Conference Id from the Key
         final long conferenceId = conferenceKey.getId();
-        // Create a default queue
-        final Queue queue = QueueFactory.getDefaultQueue();
         // Start a transaction
-        Conference conference = ofy().transact(new Work<Conference>() {
+        Conference conference = Transactions.run("createConference", new Work<Conference>() {
             @Override
             public Conference run() {
+                // Check again in the transaction, in case an earlier attempt is still running
+                RequestOutcome outcome =
+                        RequestOutcomes.find(userId, "createConference", requestId);
+                if (outcome != null) {
+                    return ofy().load().key(
+                            KeyCache.<Conference>parse(outcome.getResult())).now();
+                }
                 // Get the existing Profile entity for the current user if there is one
                 // Otherwise create a new Profile entity with default values
                 Profile profile = getProfileFromUser(user);
                 // Create a new Conference Entity, specifying the user's Profile entity
                 // as the parent of the conference
                 Conference conference = new Conference(conferenceId, userId, conferenceForm);
-                // Save Conference and Profile Entities
+                // Store the organizer's name, so reads don't need to look up the Profile
+                conference.attachOrganizer(profile);
+                // Split the seats over shards, so registrations don't contend on the Conference
+                List<SeatShard> seatShards = SeatCounter.createShards(conference);
+                // A small Conference may be nearly sold out from the start
+                NearlySoldOutIndex.seatsChanged(conference, 0);
+                // Save Conference, Profile and SeatShard Entities
                 ofy().save().entities(profile, conference).now();
-                // Add the task to the queue inside a transaction
-                queue.add(ofy().getTransaction(), TaskOptions.Builder.withUrl("/tasks/send_confirmation_email")
-                                                    .param("email", profile.getMainEmail())
-                                                    .param("conferenceInfo", conference.toString()));
+                ofy().save().entities(seatShards).now();
+                // Save the confirmation along with the Conference
+                ConfirmationEmails.enqueue(profile, conference);
+                // Save the outcome in the same entity group, so retries never create another
+                RequestOutcomes.save(userId, "createConference", requestId,
+                        ResultCode.OK.name(), conference.getWebsafeKey());
                 return conference;
             }
         });
+        if (conference.getId() != conferenceId) {
+            // An earlier attempt of this request has created it
+            return conference;
+        }
+        // Send the confirmation, along with the others created in the same window
+        ConfirmationEmails.scheduleDrain(0);
+        // The new conference may match any cached query
+        QueryCache.invalidate();
         return conference;
     }
 
     /**
-     * Queries against the data-store with the given filters and returns the result.
+     * Queries against the data-store with the given filters and returns a page of the result.
      *
-     * @param //conference_Query_Form A form object representing the query
-     * @return A list of conferences that match the query
+     * @param //conference_Query_Form A form object representing the query and the page
+     * @return A page of conferences that match the query, with the token of the next page
+     *     if there may be more results
+     * @throws BadRequestException when the page token is malformed.
      */
     @ApiMethod(
             name = "queryConferences",
             path = "queryConferences",
             httpMethod = HttpMethod.POST
     )
-    public List<Conference> queryConferences(ConferenceQueryForm conferenceQueryForm) {
-        // Find all entities of type Conference sorted by its name
-        // Query query = ofy().load().type(Conference.class).order("name");
-        // return query.list();
-        //return conferenceQueryForm.getQuery().list();
-        Iterable<Conference> conferenceIterable = conferenceQueryForm.getQuery();
-        List<Conference> result = new ArrayList<>(0);
-        List<Key<Profile>> organizersKeyList = new ArrayList<>(0);
-        for (Conference conference : conferenceIterable) {
-            organizersKeyList.add(Key.create(Profile.class, conference.getOrganizerUserId()));
-            result.add(conference);
-        }
-        // To avoid separate datastore gets for each Conference, pre-fetch the Profiles.
-        ofy().load().keys(organizersKeyList);
-        return result;
+    public CollectionResponse<Conference> queryConferences(
+            ConferenceQueryForm conferenceQueryForm) throws BadRequestException {
+        // Popular queries are cached as keys, so a hit costs a single batch get
+        QueryCache.Page cachedPage = QueryCache.get(conferenceQueryForm);
+        if (cachedPage != null) {
+            List<Key<Conference>> keys = cachedPage.getKeys();
+            List<String> websafeKeys = cachedPage.getWebsafeKeys();
+            // Look up the Conferences and their seats at the same time
+            Result<Map<Key<Conference>, Conference>> conferences =
+                    OfyService.loadCachedAsync(keys);
+            Result<Map<String, Object>> seatsAvailable =
+                    SeatCounter.loadSeatsAvailable(websafeKeys);
+            List<Conference> result = new ArrayList<>(keys.size());
+            for (Key<Conference> key : keys) {
+                if (conferences.now().containsKey(key)) {
+                    result.add(conferences.now().get(key));
+                }
+            }
+            return CollectionResponse.<Conference>builder()
+                    .setItems(attachDetails(result, seatsAvailable))
+                    .setNextPageToken(cachedPage.getNextPageToken())
+                    .build();
+        }
+        Query<Conference> query = conferenceQueryForm.getQuery();
+        QueryResultIterator<Conference> iterator;
+        try {
+            iterator = query.iterator();
+        } catch (IllegalArgumentException e) {
+            throw invalidPageToken(conferenceQueryForm.getCursor(), e);
+        }
+        List<Conference> result = new ArrayList<>(conferenceQueryForm.getPageSize());
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        // A short page means there are no more results.
+        String nextPageToken = null;
+        if (result.size() == conferenceQueryForm.getPageSize()) {
+            nextPageToken = iterator.getCursor().toWebSafeString();
+        }
+        QueryCache.put(conferenceQueryForm, new QueryCache.Page(result, nextPageToken));
+        // To avoid separate lookups for each Conference, load the Profiles and seats in batches.
+        return CollectionResponse.<Conference>builder()
+                .setItems(attachDetails(result))
+                .setNextPageToken(nextPageToken)
+                .build();
+    }
+
+    /**
+     * Queries against the data-store with the given filters and returns a page of summaries.
+     * This is the SUMMARY view of queryConferences: the summaries are read with a projection
+     * query, so no Conference entity is loaded.
+     *
+     * @param conferenceQueryForm A form object representing the query and the page
+     * @return A page of summaries of the conferences that match the query, with the token of
+     *     the next page if there may be more results
+     * @throws BadRequestException when the page token is malformed.
+     */
+    @ApiMethod(
+            name = "queryConferenceSummaries",
+            path = "queryConferences/summary",
+            httpMethod = HttpMethod.POST
+    )
+    public CollectionResponse<ConferenceSummary> queryConferenceSummaries(
+            ConferenceQueryForm conferenceQueryForm) throws BadRequestException {
+        com.google.appengine.api.datastore.Query query =
+                conferenceQueryForm.getProjectionQuery(ConferenceSummary.PROPERTIES);
+        FetchOptions fetchOptions = conferenceQueryForm.getFetchOptions();
+        QueryResultList<Entity> entities;
+        try {
+            entities = DatastoreServiceFactory.getDatastoreService()
+                    .prepare(query).asQueryResultList(fetchOptions);
+        } catch (IllegalArgumentException e) {
+            throw invalidPageToken(conferenceQueryForm.getCursor(), e);
+        }
+        // A short page means there are no more results.
+        String nextPageToken = null;
+        if (entities.size() == conferenceQueryForm.getPageSize()) {
+            nextPageToken = entities.getCursor().toWebSafeString();
+        }
+        return CollectionResponse.<ConferenceSummary>builder()
+                .setItems(toSummaries(entities, conferenceQueryForm.getEqualityValues()))
+                .setNextPageToken(nextPageToken)
+                .build();
+    }
+
+    private static List<ConferenceSummary> toSummaries(List<Entity> entities,
+                                                       Map<String, Object> equalityValues) {
+        List<ConferenceSummary> summaries = new ArrayList<>(entities.size());
+        for (Entity entity : entities) {
+            summaries.add(ConferenceSummary.fromProjection(entity, equalityValues));
+        }
+        return summaries;
     }
 
     /**
@@ -253,7 +453,39 @@ public class ConferenceApi {
         }
         String userId = user.getUserId();
         Key userKey = Key.create(Profile.class, userId);
-        return ofy().load().type(Conference.class).ancestor(userKey).order("name").list();
+        return attachDetails(
+                ofy().load().type(Conference.class).ancestor(userKey).order("name").list());
+    }
+
+    /**
+     * Returns summaries of the conferences that the user created.
+     * This is the SUMMARY view of getConferencesCreated, read with a projection query.
+     *
+     * @param user A user that invokes this API
+     * @return a list of summaries of the conferences that the user created
+     * @throws UnauthorizedException when the user is not signed in
+     */
+    @ApiMethod(
+            name = "getConferenceSummariesCreated",
+            path = "getConferencesCreated/summary",
+            httpMethod = HttpMethod.POST
+    )
+    public List<ConferenceSummary> getConferenceSummariesCreated(final User user)
+            throws UnauthorizedException {
+        // If user is not signed on, throw a 401 error
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        com.google.appengine.api.datastore.Query query =
+                new com.google.appengine.api.datastore.Query("Conference")
+                        .setAncestor(KeyFactory.createKey("Profile", user.getUserId()))
+                        .addSort("name", SortDirection.ASCENDING);
+        for (Map.Entry<String, Class<?>> property : ConferenceSummary.PROPERTIES.entrySet()) {
+            query.addProjection(new PropertyProjection(property.getKey(), property.getValue()));
+        }
+        List<Entity> entities = DatastoreServiceFactory.getDatastoreService()
+                .prepare(query).asList(FetchOptions.Builder.withDefaults());
+        return toSummaries(entities, new HashMap<String, Object>());
     }
 
     public List<Conference> queryFiterByProperty() {
@@ -291,14 +523,46 @@ public class ConferenceApi {
     public Conference getConference(
             @Named("websafeConferenceKey") final String websafeConferenceKey)
             throws NotFoundException {
-        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Conference conference = ofy().load().key(conferenceKey).now();
+        Key<Conference> conferenceKey = KeyCache.parse(websafeConferenceKey);
+        // Look up the seats along with the Conference. This is a wasted memcache get when the
+        // Conference turns out not to be sharded, but it saves a round trip when it is.
+        Result<Map<String, Object>> seatsAvailable = SeatCounter.loadSeatsAvailable(
+                Collections.singletonList(websafeConferenceKey));
+        Conference conference = OfyService.loadCached(conferenceKey);
         if (conference == null) {
             throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
         }
+        attachDetails(Collections.singletonList(conference), seatsAvailable);
         return conference;
     }
 
+    /**
+     * Attaches the organizer display names and the available seats to the Conferences of a
+     * response, so serializing them needs no lookups. The organizer Profiles are loaded while
+     * the seat sums are looked up.
+     *
+     * @param conferences the Conferences of a response.
+     * @param seatsAvailable the pending result of SeatCounter.loadSeatsAvailable.
+     * @return the given conferences, for method chaining.
+     */
+    private static <T extends Iterable<Conference>> T attachDetails(T conferences,
+            Result<Map<String, Object>> seatsAvailable) {
+        Result<Map<Key<Profile>, Profile>> organizers =
+                OrganizerLoader.loadOrganizers(conferences);
+        SeatCounter.attachSeatsAvailable(conferences, seatsAvailable);
+        return OrganizerLoader.attachOrganizers(conferences, organizers);
+    }
+
+    private static <T extends Iterable<Conference>> T attachDetails(T conferences) {
+        List<String> shardedKeys = new ArrayList<>();
+        for (Conference conference : conferences) {
+            if (conference.getSeatShardCount() > 0) {
+                shardedKeys.add(conference.getWebsafeKey());
+            }
+        }
+        return attachDetails(conferences, SeatCounter.loadSeatsAvailable(shardedKeys));
+    }
+
     /**
      * Just a wrapper for Boolean.
      * We need this wrapped Boolean because endpoints functions must return
@@ -308,15 +572,18 @@ public class ConferenceApi {
     public static class WrappedBoolean {
 
         private final Boolean result;
+        private final ResultCode code;
         private final String reason;
 
         public WrappedBoolean(Boolean result) {
             this.result = result;
+            this.code = ResultCode.OK;
             this.reason = "";
         }
 
-        public WrappedBoolean(Boolean result, String reason) {
-            this.result = result;
+        public WrappedBoolean(ResultCode code, String reason) {
+            this.result = code == ResultCode.OK;
+            this.code = code;
             this.reason = reason;
         }
 
@@ -324,19 +591,59 @@ public class ConferenceApi {
             return result;
         }
 
+        @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+        public ResultCode getCode() {
+            return code;
+        }
+
         public String getReason() {
             return reason;
         }
     }
 
+    /**
+     * The outcome of a registration or unregistration, turned into an error by throwError.
+     */
+    public enum ResultCode {
+        OK,
+        NOT_FOUND,
+        ALREADY_REGISTERED,
+        NO_SEATS,
+        NOT_REGISTERED,
+        RESERVATION_REQUIRED,
+        /**
+         * The transaction kept losing to concurrent transactions; retry later.
+         */
+        CONTENTION,
+        /**
+         * The seat has been booked or given back, but the registration could not be updated
+         * yet; the recovery task of the SeatChange will update it.
+         */
+        PENDING,
+        UNKNOWN;
+
+        /**
+         * Returns true if a retry of the request may have another outcome, so the outcome is
+         * not replayed.
+         */
+        public boolean isTransient() {
+            return this == CONTENTION || this == PENDING || this == UNKNOWN;
+        }
+    }
+
     /**
      * Register to attend the specified Conference.
+     * The seat is booked in the entity group of the seat, then the registration is recorded
+     * in the user's, where it is checked again; see SeatChanges.
      *
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param requestId An id chosen by the client, so a retry returns the outcome of the first
+     *     attempt; null if the client doesn't retry.
      * @return Boolean true when success, otherwise false
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws BadRequestException when the requestId is malformed.
      */
     @ApiMethod(
             name = "registerForConference",
@@ -344,66 +651,425 @@ public class ConferenceApi {
             httpMethod = HttpMethod.POST
     )
     public WrappedBoolean registerForConference (final User user,
-            @Named("websafeConferenceKey") final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException,
-            ForbiddenException, ConflictException {
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            @Nullable @Named("requestId") final String requestId)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            ConflictException, ServiceUnavailableException, BadRequestException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
+        checkRequestId(requestId);
 
-        // Get the userId
+        // Get the userId and the user's Profile entity
         final String userId = user.getUserId();
+        // Replay the outcome of an earlier attempt of this request
+        WrappedBoolean replayed = replay(userId, "registerForConference", requestId);
+        if (replayed != null) {
+            return replayed;
+        }
+        final Profile profile = getProfileFromUser(user);
+
+        // Get the conference key which we can get from websafeConferenceKey
+        final Key<Conference> conferenceKey = parseConferenceKey(websafeConferenceKey);
 
-        // Start transaction
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
+        // Has the user already registered to attend this conference?
+        if (Attendance.isAttending(profile, websafeConferenceKey)) {
+            throwError(new WrappedBoolean(ResultCode.ALREADY_REGISTERED, "Already registered"));
+        }
+
+        // Book the seat in the entity group of the seat only
+        Work<WrappedBoolean> booking = new Work<WrappedBoolean>() {
             @Override
             public WrappedBoolean run() {
+                // Get the Conference entity from the datastore
+                Conference conference = ofy().load().key(conferenceKey).now();
+
+                // 404 when there is no Conference with the given conferenceId.
+                if (conference == null) {
+                    return saveOutcome(userId, "registerForConference", requestId,
+                            new WrappedBoolean(ResultCode.NOT_FOUND,
+                                    "No Conference found with key: " + websafeConferenceKey));
+                }
+
+                if (conference.isReservationQueue()) {
+                    // Registrations are decided by the reservation queue worker
+                    return saveOutcome(userId, "registerForConference", requestId,
+                            new WrappedBoolean(ResultCode.RESERVATION_REQUIRED,
+                                    "Reservation required"));
+                }
+                Key<SeatChange> changeKey = SeatChanges.book(conference, userId, requestId);
+                if (changeKey == null) {
+                    return saveOutcome(userId, "registerForConference", requestId,
+                            new WrappedBoolean(ResultCode.NO_SEATS, "No seats available"));
+                }
+                // Record the registration as a child of the user's Profile
+                SeatChanges.Outcome outcome = applySeatChange(changeKey, profile);
+                if (outcome == null) {
+                    return new WrappedBoolean(ResultCode.PENDING, "Registration pending");
+                }
+                if (outcome != SeatChanges.Outcome.APPLIED) {
+                    // The outcome saved along with the registration tells whether an earlier
+                    // attempt of this request registered the user, or a concurrent request did
+                    WrappedBoolean saved =
+                            findOutcome(userId, "registerForConference", requestId);
+                    if (saved != null) {
+                        return saved;
+                    }
+                }
+                if (outcome == SeatChanges.Outcome.REVERTED) {
+                    // A concurrent request registered the user first
+                    return new WrappedBoolean(ResultCode.ALREADY_REGISTERED,
+                            "Already registered");
+                }
+                // We are booked!
+                return new WrappedBoolean(ResultCode.OK, "Registration successful");
+            }
+        };
+        WrappedBoolean result = runRegistration("registerForConference", booking);
+
+        throwError(result);
+        return result;
+    }
+
+    /**
+     * Registers many users for many conferences in one call.
+     * The user can register himself/herself for any conference, and anyone for the conferences
+     * he/she has created.
+     *
+     * All the Profile and Conference entities are loaded with one batch get, and the seats are
+     * booked once per conference for up to REGISTRATIONS_PER_TRANSACTION registrations.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param registrationsForm A RegistrationsForm object listing the registrations.
+     * @param requestId An id chosen by the client, so a retry with the same form returns the
+     *     outcomes of the first attempt; null if the client doesn't retry.
+     * @return the outcome of each registration, in the order of the form entries.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws BadRequestException when the requestId is malformed, or has been used for another
+     *     form.
+     */
+    @ApiMethod(
+            name = "registerForConferences",
+            path = "registrations",
+            httpMethod = HttpMethod.POST
+    )
+    public List<RegistrationResult> registerForConferences(final User user,
+            RegistrationsForm registrationsForm,
+            @Nullable @Named("requestId") final String requestId)
+            throws UnauthorizedException, BadRequestException {
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        checkRequestId(requestId);
+        List<RegistrationsForm.Entry> entries = registrationsForm.getEntries();
+        RegistrationResult[] results = new RegistrationResult[entries.size()];
+
+        // Replay the outcomes of an earlier attempt of this request
+        String requestHash = registrationsForm.getHash();
+        RequestOutcome outcome =
+                RequestOutcomes.find(user.getUserId(), "registerForConferences", requestId);
+        if (outcome != null) {
+            if (!requestHash.equals(outcome.getRequestHash())) {
+                throw new BadRequestException("The requestId has already been used for "
+                        + "other registrations");
+            }
+            List<RegistrationResult> resultList = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                String reason = outcome.getResults().get(i);
+                resultList.add(new RegistrationResult(entries.get(i).getUserId(),
+                        entries.get(i).getWebsafeConferenceKey(),
+                        REGISTRATION_SUCCESSFUL.equals(reason), reason));
+            }
+            return resultList;
+        }
+
+        // Group the entries by conference, and collect all the keys for one batch get
+        Map<Key<Conference>, List<Integer>> entriesByConference = new LinkedHashMap<>();
+        List<Key<Object>> keysToLoad = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            RegistrationsForm.Entry entry = entries.get(i);
+            Key<Conference> conferenceKey;
+            try {
+                conferenceKey = Key.create(entry.getWebsafeConferenceKey());
+            } catch (IllegalArgumentException | NullPointerException e) {
+                results[i] = new RegistrationResult(entry.getUserId(),
+                        entry.getWebsafeConferenceKey(), false,
+                        "No Conference found with key: " + entry.getWebsafeConferenceKey());
+                continue;
+            }
+            if (entry.getUserId() == null) {
+                results[i] = new RegistrationResult(null, entry.getWebsafeConferenceKey(), false,
+                        "Profile doesn't exist");
+                continue;
+            }
+            if (!entriesByConference.containsKey(conferenceKey)) {
+                entriesByConference.put(conferenceKey, new ArrayList<Integer>());
+                keysToLoad.add(Key.<Object>create(entry.getWebsafeConferenceKey()));
+            }
+            entriesByConference.get(conferenceKey).add(i);
+            keysToLoad.add(Key.<Object>create(Profile.class, entry.getUserId()));
+            keysToLoad.add(Key.<Object>create(Registration.createKey(entry.getUserId(),
+                    entry.getWebsafeConferenceKey()).getRaw()));
+        }
+        Map<Key<Object>, Object> loaded = ofy().load().keys(keysToLoad);
+
+        for (Map.Entry<Key<Conference>, List<Integer>> group : entriesByConference.entrySet()) {
+            Conference conference = (Conference) loaded.get(group.getKey());
+            boolean isOrganizer = conference != null
+                    && user.getUserId().equals(conference.getOrganizerUserId());
+            Set<String> userIdsInBatch = new HashSet<>();
+            List<Integer> eligible = new ArrayList<>();
+            for (int i : group.getValue()) {
+                RegistrationsForm.Entry entry = entries.get(i);
+                String userId = entry.getUserId();
+                Profile profile = (Profile) loaded.get(Key.create(Profile.class, userId));
+                String reason = null;
+                if (conference == null) {
+                    reason = "No Conference found with key: " + entry.getWebsafeConferenceKey();
+                } else if (conference.isReservationQueue()) {
+                    // Registrations are decided by the reservation queue worker
+                    reason = "Reservation required";
+                } else if (!isOrganizer && !userId.equals(user.getUserId())) {
+                    reason = "Not authorized";
+                } else if (profile == null && !userId.equals(user.getUserId())) {
+                    reason = "Profile doesn't exist";
+                } else if (!userIdsInBatch.add(userId) || (profile != null && Attendance
+                        .isAttending(profile, conference.getWebsafeKey(), loaded))) {
+                    reason = "Already registered";
+                }
+                if (reason != null) {
+                    results[i] = new RegistrationResult(userId,
+                            entry.getWebsafeConferenceKey(), false, reason);
+                } else {
+                    eligible.add(i);
+                }
+            }
+            for (int from = 0; from < eligible.size(); from += REGISTRATIONS_PER_TRANSACTION) {
+                List<Integer> chunk = eligible.subList(from,
+                        Math.min(from + REGISTRATIONS_PER_TRANSACTION, eligible.size()));
+                List<String> userIds = new ArrayList<>(chunk.size());
+                for (int i : chunk) {
+                    userIds.add(entries.get(i).getUserId());
+                }
+                List<String> reasons;
                 try {
-                    // Get the conference key which we can get from websafeConferenceKey
-                    // Will throw ForbiddenException if the key cannot be created
-                    Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-
-                    // Get the Conference entity from the datastore
-                    Conference conference = ofy().load().key(conferenceKey).now();
-
-                    // 404 when there is no Conference with the given conferenceId.
-                    if (conference == null) {
-                        return new WrappedBoolean (false,
-                                "No Conference found with key: "
-                                        + websafeConferenceKey);
+                    reasons = registerChunk(user, conference, userIds);
+                } catch (Transactions.ContentionException e) {
+                    LOG.log(Level.WARNING,
+                            "registerForConferences lost to concurrent registrations", e);
+                    reasons = Collections.nCopies(chunk.size(), "Too much contention");
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "registerForConferences failed", e);
+                    reasons = Collections.nCopies(chunk.size(), "Unknown exception");
+                }
+                int booked = 0;
+                for (int j = 0; j < chunk.size(); j++) {
+                    RegistrationsForm.Entry entry = entries.get(chunk.get(j));
+                    String reason = reasons.get(j);
+                    if (reason == null) {
+                        booked++;
                     }
+                    results[chunk.get(j)] = new RegistrationResult(entry.getUserId(),
+                            entry.getWebsafeConferenceKey(), reason == null,
+                            reason == null ? REGISTRATION_SUCCESSFUL : reason);
+                }
+                if (booked > 0 && conference.getSeatShardCount() > 0) {
+                    SeatCounter.seatsChanged(conference.getWebsafeKey(), -booked);
+                }
+            }
+        }
+        List<RegistrationResult> resultList = new ArrayList<>(results.length);
+        List<String> reasons = new ArrayList<>(results.length);
+        boolean isTransient = false;
+        for (RegistrationResult result : results) {
+            resultList.add(result);
+            reasons.add(result.getReason());
+            isTransient |= TRANSIENT_REASONS.contains(result.getReason());
+        }
+        // A chunk that failed may succeed on a retry, so the outcomes are not replayed
+        if (!isTransient) {
+            RequestOutcomes.save(user.getUserId(), "registerForConferences", requestId,
+                    requestHash, ResultCode.OK.name(), reasons);
+        }
+        return resultList;
+    }
 
-                    // Get the user's Profile entity
-                    Profile profile = getProfileFromUser(user);
+    /**
+     * Registers the given users for a conference in a single transaction, booking all the seats
+     * at once.
+     *
+     * @return the failure reason for each user, null for the users who have been registered.
+     */
+    private static List<String> registerChunk(final User user, final Conference conference,
+                                              final List<String> userIds) {
+        final String websafeConferenceKey = conference.getWebsafeKey();
+        return Transactions.run("registerForConferences", new Work<List<String>>() {
+            @Override
+            public List<String> run() {
+                List<Key<Object>> keysToLoad = new ArrayList<>(userIds.size() * 2);
+                for (String userId : userIds) {
+                    keysToLoad.add(Key.<Object>create(Profile.class, userId));
+                    keysToLoad.add(Key.<Object>create(
+                            Registration.createKey(userId, websafeConferenceKey).getRaw()));
+                }
+                Map<Key<Object>, Object> loaded = ofy().load().keys(keysToLoad);
 
-                    // Has the user already registered to attend this conference?
-                    if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
-                        return new WrappedBoolean (false, "Already registered");
-                    } else if (conference.getSeatsAvailable() <= 0) {
-                        return new WrappedBoolean (false, "No seats available");
+                // Check the profiles again now that they are enlisted in the transaction
+                List<String> reasons = new ArrayList<>(userIds.size());
+                List<Profile> profilesToRegister = new ArrayList<>(userIds.size());
+                for (int i = 0; i < userIds.size(); i++) {
+                    Profile profile = (Profile) loaded.get(
+                            Key.create(Profile.class, userIds.get(i)));
+                    if (profile == null && userIds.get(i).equals(user.getUserId())) {
+                        profile = getProfileFromUser(user);
+                    }
+                    if (profile == null) {
+                        reasons.add("Profile doesn't exist");
+                    } else if (Attendance.isAttending(profile, websafeConferenceKey, loaded)) {
+                        reasons.add("Already registered");
                     } else {
-                        // All looks good, go ahead and book the seat
-                        // Add the websafeConferenceKey to the profile's conferencesToAttend property
-                        profile.addToConferenceKeysToAttend(websafeConferenceKey);
-                        // Decrease the conference's seatsAvailable
-                        // You can use the bookSeats() method on Conference
-                        conference.bookSeats(1);
-                        // Save the Conference and Profile entities
-                        ofy().save().entities(profile, conference).now();
-                        // We are booked!
-                        return new WrappedBoolean(true, "Registration successful");
+                        reasons.add(null);
+                        profilesToRegister.add(profile);
+                    }
+                }
+
+                if (profilesToRegister.isEmpty()) {
+                    return reasons;
+                }
+                // The Conference group is enlisted on the sharded path too, so that switching
+                // to the reservation queue conflicts with the chunk. With the chunk's profiles
+                // and shards, it makes up to the 25 groups a transaction may span.
+                Conference current = ofy().load().key(conference.getKey()).now();
+                if (current.isReservationQueue()) {
+                    Collections.replaceAll(reasons, null, "Reservation required");
+                    return reasons;
+                }
+
+                // Book the seats for all the remaining users at once
+                int booked;
+                if (current.getSeatShardCount() > 0) {
+                    booked = SeatCounter.bookSeats(current, profilesToRegister.size());
+                } else {
+                    int seatsAvailable = current.getSeatsAvailable();
+                    booked = Math.min(seatsAvailable, profilesToRegister.size());
+                    if (booked > 0) {
+                        current.bookSeats(booked);
+                        NearlySoldOutIndex.seatsChanged(current, seatsAvailable);
+                        ofy().save().entity(current);
                     }
+                }
 
+                // The users who got no seat are reported in the order of the batch
+                for (Profile profile : profilesToRegister.subList(0, booked)) {
+                    Attendance.register(profile, websafeConferenceKey);
                 }
-                catch (Exception e) {
-                    return new WrappedBoolean(false, "Unknown exception");
+                for (int i = 0, seen = 0; i < reasons.size(); i++) {
+                    if (reasons.get(i) == null && seen++ >= booked) {
+                        reasons.set(i, "No seats available");
+                    }
                 }
+                return reasons;
             }
         });
+    }
 
-        throwError(result);
-        return result;
+    /**
+     * Returns whether the user is registered to attend the specified Conference.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @return Boolean true when the user is registered, otherwise false.
+     * @throws UnauthorizedException when the user is not signed in.
+     */
+    @ApiMethod(
+            name = "isAttending",
+            path = "conference/{websafeConferenceKey}/registration",
+            httpMethod = HttpMethod.GET
+    )
+    public WrappedBoolean isAttending(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey)
+            throws UnauthorizedException {
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Profile profile = getProfileFromUser(user);
+        return new WrappedBoolean(Attendance.isAttending(profile, websafeConferenceKey));
+    }
+
+    /**
+     * Returns a page of the attendees of a Conference. Only the organizer can list them.
+     * Use /export/attendees to get all the attendees of a large Conference at once.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param pageToken the nextPageToken of the previous page, null for the first page.
+     * @param pageSize the number of attendees per page, DEFAULT_ATTENDEES_PAGE_SIZE if null.
+     * @return A page of the Profiles of the attendees, with the token of the next page
+     *     if there may be more attendees.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ForbiddenException when the user is not the organizer.
+     * @throws BadRequestException when the page token is malformed.
+     */
+    @ApiMethod(
+            name = "getConferenceAttendees",
+            path = "conference/{websafeConferenceKey}/attendees",
+            httpMethod = HttpMethod.GET
+    )
+    public CollectionResponse<Profile> getConferenceAttendees(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            @Nullable @Named("pageToken") final String pageToken,
+            @Nullable @Named("pageSize") final Integer pageSize)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            BadRequestException {
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Key<Conference> conferenceKey = KeyCache.parse(websafeConferenceKey);
+        Conference conference = OfyService.loadCached(conferenceKey);
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        if (!user.getUserId().equals(conference.getOrganizerUserId())) {
+            throw new ForbiddenException("Only the organizer can list the attendees");
+        }
+
+        int limit = pageSize == null ? DEFAULT_ATTENDEES_PAGE_SIZE
+                : Math.max(1, Math.min(MAX_ATTENDEES_PAGE_SIZE, pageSize));
+        Query<Registration> query = Attendance.queryAttendees(conferenceKey).limit(limit);
+        QueryResultIterator<Key<Registration>> iterator;
+        try {
+            if (pageToken != null) {
+                query = query.startAt(Cursor.fromWebSafeString(pageToken));
+            }
+            iterator = query.keys().iterator();
+        } catch (IllegalArgumentException e) {
+            throw invalidPageToken(pageToken, e);
+        }
+        List<Key<Profile>> profileKeys = new ArrayList<>(limit);
+        while (iterator.hasNext()) {
+            profileKeys.add(iterator.next().<Profile>getParent());
+        }
+        Map<Key<Profile>, Profile> profiles = ofy().load().keys(profileKeys);
+        List<Profile> attendees = new ArrayList<>(profileKeys.size());
+        for (Key<Profile> profileKey : profileKeys) {
+            if (profiles.containsKey(profileKey)) {
+                attendees.add(profiles.get(profileKey));
+            }
+        }
+        // A short page means there are no more attendees.
+        String nextPageToken = null;
+        if (profileKeys.size() == limit) {
+            nextPageToken = iterator.getCursor().toWebSafeString();
+        }
+        return CollectionResponse.<Profile>builder()
+                .setItems(attendees)
+                .setNextPageToken(nextPageToken)
+                .build();
     }
 
     /**
@@ -424,114 +1090,391 @@ public class ConferenceApi {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        // Get the Profile entity for the user
-        Profile profile = getProfileFromUser(user);
-        if (profile == null) {
-            throw new NotFoundException("Profile doesn't exist.");
-        }
-        // Get the value of the profile's conferenceKeysToAttend property
-        List<String> keyStringsToAttend = profile.getConferenceKeysToAttend();
+        // Start the keys-only ancestor query on the registrations, and get the Profile entity
+        // for the user while it runs. Only Profiles saved before Registration existed hold
+        // registrations themselves.
+        String userId = user.getUserId();
+        Iterator<Key<Registration>> registrationKeys = Attendance.startRegistrationQuery(userId);
+        Profile profile = OfyService.loadCached(Key.create(Profile.class, userId));
+        Set<String> keyStringsToAttend =
+                Attendance.getConferenceKeysToAttend(profile, registrationKeys);
 
         // Iterate over keyStringsToAttend, and return a Collection of the
         // Conference entities that the user has registered to attend
         List<Key<Conference>> keysToAttend = new ArrayList<>();
         for(String keyString : keyStringsToAttend) {
-            keysToAttend.add(Key.<Conference>create(keyString));
+            keysToAttend.add(KeyCache.<Conference>parse(keyString));
         }
-        // To return the entities when a list of their keys is available
-        return ofy().load().keys(keysToAttend).values();
+        // Look up the Conferences and their seats at the same time
+        Result<Map<Key<Conference>, Conference>> conferences =
+                OfyService.loadCachedAsync(keysToAttend);
+        Result<Map<String, Object>> seatsAvailable =
+                SeatCounter.loadSeatsAvailable(keyStringsToAttend);
+        return attachDetails(conferences.now().values(), seatsAvailable);
     }
 
     /**
      * Unregister from the specified Conference.
+     * The seat is given back in the entity group of the seat, then the registration is deleted
+     * from the user's, where it is checked again; see SeatChanges.
      *
      * @param user An user who invokes this method, null when the user is not signed in.
      * @param websafeConferenceKey The String representation of the Conference Key
      * to unregister from.
+     * @param requestId An id chosen by the client, so a retry returns the outcome of the first
+     *     attempt; null if the client doesn't retry.
      * @return Boolean true when success, otherwise false.
      * @throws UnauthorizedException when the user is not signed in.
      * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws BadRequestException when the requestId is malformed.
      */
     @ApiMethod(name = "unregisterFromConference",
                path = "conference/{websafeConferenceKey}/unregistration",
                httpMethod = HttpMethod.DELETE)
     public WrappedBoolean unregisterFromConference(final User user,
-                                                   @Named("websafeConferenceKey") final String websafeConferenceKey)
-            throws UnauthorizedException, NotFoundException,
-            ForbiddenException, ConflictException {
+                                                   @Named("websafeConferenceKey") final String websafeConferenceKey,
+                                                   @Nullable @Named("requestId") final String requestId)
+            throws UnauthorizedException, NotFoundException, ForbiddenException,
+            ConflictException, ServiceUnavailableException, BadRequestException {
         // If not signed in, throw a 401 error.
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        // Get the userId
+        checkRequestId(requestId);
+        // Get the userId and the user's Profile entity
         final String userId = user.getUserId();
+        // Replay the outcome of an earlier attempt of this request
+        WrappedBoolean replayed = replay(userId, "unregisterFromConference", requestId);
+        if (replayed != null) {
+            return replayed;
+        }
+        final Profile profile = getProfileFromUser(user);
+
+        // Get the conference key which we can get from websafeConferenceKey
+        final Key<Conference> conferenceKey = parseConferenceKey(websafeConferenceKey);
+
+        // Throw error if user hasn't already registered to attend the conference
+        if (!Attendance.isAttending(profile, websafeConferenceKey)) {
+            throwError(new WrappedBoolean(ResultCode.NOT_REGISTERED, "User not registered"));
+        }
 
-        // Start transaction
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
+        // Give back the seat in the entity group of the seat only
+        Work<WrappedBoolean> cancellation = new Work<WrappedBoolean>() {
             @Override
             public WrappedBoolean run() {
-                try {
-                    // Get the conference key which we can get from websafeConferenceKey
-                    // Will throw ForbiddenException if the key cannot be created
-                    Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-
-                    // Get the Conference entity from the datastore
-                    Conference conference = ofy().load().key(conferenceKey).now();
-
-                    // 404 when there is no Conference with the given conferenceId.
-                    if (conference == null) {
-                        return new WrappedBoolean (false,
-                                "No Conference found with key: "
-                                        + websafeConferenceKey);
-                    }
+                // Get the Conference entity from the datastore
+                Conference conference = ofy().load().key(conferenceKey).now();
 
-                    // Get the user's Profile entity
-                    Profile profile = getProfileFromUser(user);
+                // 404 when there is no Conference with the given conferenceId.
+                if (conference == null) {
+                    return saveOutcome(userId, "unregisterFromConference", requestId,
+                            new WrappedBoolean(ResultCode.NOT_FOUND,
+                                    "No Conference found with key: " + websafeConferenceKey));
+                }
 
-                    // Throw error if user hasn't already registered to attend the conference
-                    if (!profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
-                        return new WrappedBoolean (false, "User not registered");
-                    } else {
-                        // All looks good, go ahead and give back the seat
-                        // Remove the websafeConferenceKey from the profile's conferencesToAttend property
-                        profile.unregisterFromConference(websafeConferenceKey);
-                        // Increase the conference's seatsAvailable by calling giveBackSeats() method on Conference
-                        conference.giveBackSeats(1);
-                        // Save the Conference and Profile entities
-                        ofy().save().entities(profile, conference).now();
-                        // User is unregistered!
-                        return new WrappedBoolean(true, "Un-registration successful");
+                Key<SeatChange> changeKey =
+                        SeatChanges.giveBack(conference, userId, requestId);
+                if (changeKey == null) {
+                    // Every seat is free, so the user cannot be holding one
+                    return saveOutcome(userId, "unregisterFromConference", requestId,
+                            new WrappedBoolean(ResultCode.NOT_REGISTERED,
+                                    "User not registered"));
+                }
+                // Delete the user's registration for the conference
+                SeatChanges.Outcome outcome = applySeatChange(changeKey, profile);
+                if (outcome == null) {
+                    return new WrappedBoolean(ResultCode.PENDING, "Un-registration pending");
+                }
+                if (outcome != SeatChanges.Outcome.APPLIED) {
+                    // The outcome saved along with the registration tells whether an earlier
+                    // attempt of this request unregistered the user, or a concurrent request did
+                    WrappedBoolean saved =
+                            findOutcome(userId, "unregisterFromConference", requestId);
+                    if (saved != null) {
+                        return saved;
                     }
-
                 }
-                catch (Exception e) {
-                    return new WrappedBoolean(false, "Unknown exception");
+                if (outcome == SeatChanges.Outcome.REVERTED) {
+                    // A concurrent request unregistered the user first
+                    return new WrappedBoolean(ResultCode.NOT_REGISTERED, "User not registered");
                 }
+                // User is unregistered!
+                return new WrappedBoolean(ResultCode.OK, "Un-registration successful");
             }
-        });
+        };
+        WrappedBoolean result = runRegistration("unregisterFromConference", cancellation);
 
         throwError(result);
         return result;
     }
 
-    private void throwError(WrappedBoolean result) throws NotFoundException, ConflictException, ForbiddenException {
-        // if result is false
-        if (!result.getResult()) {
-            if (result.getReason().contains("No Conference found with key")) {
-                throw new NotFoundException (result.getReason());
+    /**
+     * Turns the reservation queue mode of a Conference on or off.
+     * Only the organizer of the Conference can change it.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param enabled whether registrations go through the reservation queue.
+     * @return the updated Conference.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ForbiddenException when the user is not the organizer.
+     */
+    @ApiMethod(
+            name = "setReservationQueue",
+            path = "conference/{websafeConferenceKey}/reservationQueue",
+            httpMethod = HttpMethod.POST
+    )
+    public Conference setReservationQueue(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            @Named("enabled") final boolean enabled)
+            throws UnauthorizedException, NotFoundException, ForbiddenException {
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        final Key<Conference> conferenceKey = KeyCache.parse(websafeConferenceKey);
+        Conference conference = Transactions.run("setReservationQueue", new Work<Conference>() {
+            @Override
+            public Conference run() {
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (conference != null
+                        && user.getUserId().equals(conference.getOrganizerUserId())) {
+                    conference.setReservationQueue(enabled);
+                    ofy().save().entity(conference).now();
+                }
+                return conference;
             }
-            else if (result.getReason() == "Already registered") {
+        });
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        if (!user.getUserId().equals(conference.getOrganizerUserId())) {
+            throw new ForbiddenException("Only the organizer can change the reservation queue");
+        }
+        return conference;
+    }
+
+    /**
+     * Reserves a seat at a Conference in reservation queue mode. The reservation is answered
+     * right away, and decided in the background; the client polls it with getReservation.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeConferenceKey The String representation of the Conference Key.
+     * @param requestId An id chosen by the client, so a retry returns the Reservation made by
+     *     the first attempt instead of making another one; null if the client doesn't retry.
+     * @return the pending Reservation.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when there is no Conference with the given conferenceId.
+     * @throws ConflictException when the Conference is not in reservation queue mode.
+     * @throws BadRequestException when the requestId is malformed.
+     */
+    @ApiMethod(
+            name = "reserveForConference",
+            path = "conference/{websafeConferenceKey}/reservation",
+            httpMethod = HttpMethod.POST
+    )
+    public Reservation reserveForConference(final User user,
+            @Named("websafeConferenceKey") final String websafeConferenceKey,
+            @Nullable @Named("requestId") final String requestId)
+            throws UnauthorizedException, NotFoundException, ConflictException,
+            BadRequestException {
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        checkRequestId(requestId);
+        // Return the Reservation made by an earlier attempt of this request
+        RequestOutcome outcome =
+                RequestOutcomes.find(user.getUserId(), "reserveForConference", requestId);
+        if (outcome != null) {
+            return ofy().load().key(KeyCache.<Reservation>parse(outcome.getResult())).now();
+        }
+        Key<Conference> conferenceKey = KeyCache.parse(websafeConferenceKey);
+        Conference conference = OfyService.loadCached(conferenceKey);
+        if (conference == null) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+        if (!conference.isReservationQueue()) {
+            throw new ConflictException("Registrations for this conference don't go through "
+                    + "reservations");
+        }
+        // The worker registers existing Profiles only
+        Key<Profile> profileKey = Key.create(Profile.class, user.getUserId());
+        if (ofy().load().key(profileKey).now() == null) {
+            ofy().save().entity(getProfileFromUser(user)).now();
+        }
+        return ReservationQueue.reserve(conferenceKey, user.getUserId(), requestId);
+    }
+
+    /**
+     * Returns a Reservation of the user, to poll for its outcome.
+     *
+     * @param user An user who invokes this method, null when the user is not signed in.
+     * @param websafeReservationKey The String representation of the Reservation Key.
+     * @return the Reservation.
+     * @throws UnauthorizedException when the user is not signed in.
+     * @throws NotFoundException when the user has no Reservation with the given key.
+     */
+    @ApiMethod(
+            name = "getReservation",
+            path = "reservation/{websafeReservationKey}",
+            httpMethod = HttpMethod.GET
+    )
+    public Reservation getReservation(final User user,
+            @Named("websafeReservationKey") final String websafeReservationKey)
+            throws UnauthorizedException, NotFoundException {
+        // If not signed in, throw a 401 error.
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+        Key<Reservation> reservationKey = KeyCache.parse(websafeReservationKey);
+        Reservation reservation = ofy().load().key(reservationKey).now();
+        if (reservation == null || !user.getUserId().equals(reservation.getUserId())) {
+            throw new NotFoundException("No Reservation found with key: "
+                    + websafeReservationKey);
+        }
+        if (reservation.getStatus() == Reservation.Status.PENDING) {
+            // Make sure a worker comes by, in case the reservation was missed by the last one
+            ReservationQueue.scheduleDrain(reservation.getConferenceKey());
+        }
+        return reservation;
+    }
+
+    /**
+     * Returns the outcome of an earlier attempt of a request, throwing the error it threw.
+     *
+     * @return the outcome, null when there has been no earlier attempt.
+     */
+    private WrappedBoolean replay(String userId, String method, String requestId)
+            throws NotFoundException, ConflictException, ForbiddenException,
+            ServiceUnavailableException {
+        WrappedBoolean result = findOutcome(userId, method, requestId);
+        if (result != null) {
+            throwError(result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the saved outcome of a request, null when there is none.
+     */
+    private static WrappedBoolean findOutcome(String userId, String method, String requestId) {
+        RequestOutcome outcome = RequestOutcomes.find(userId, method, requestId);
+        if (outcome == null) {
+            return null;
+        }
+        return new WrappedBoolean(ResultCode.valueOf(outcome.getCode()), outcome.getResult());
+    }
+
+    /**
+     * Saves the outcome of a request decided before any seat change, for its retries. The
+     * outcome of a seat change is saved by SeatChanges.apply() along with the registration.
+     *
+     * @return the result, for chaining.
+     */
+    private static WrappedBoolean saveOutcome(String userId, String method, String requestId,
+                                              WrappedBoolean result) {
+        RequestOutcomes.save(userId, method, requestId, result.getCode().name(),
+                result.getReason());
+        return result;
+    }
+
+    /**
+     * Throws a 400 error unless the request id is null or well-formed; it ends up in the key
+     * of a RequestOutcome.
+     */
+    private static void checkRequestId(String requestId) throws BadRequestException {
+        if (requestId != null && !RequestOutcomes.isValidRequestId(requestId)) {
+            throw new BadRequestException("The requestId must be 1 to "
+                    + RequestOutcomes.MAX_REQUEST_ID_LENGTH
+                    + " letters, digits, '-', '_' or '.'");
+        }
+    }
+
+    /**
+     * Returns the error for a query that failed to run with a page token. The datastore only
+     * parses the cursor when it runs the query, so a malformed one fails there.
+     *
+     * @throws IllegalArgumentException e itself, when there is no page token to blame.
+     */
+    private static BadRequestException invalidPageToken(String pageToken,
+                                                        IllegalArgumentException e) {
+        if (pageToken == null || pageToken.isEmpty()) {
+            throw e;
+        }
+        return new BadRequestException("Invalid page token");
+    }
+
+    /**
+     * Returns the key of a Conference, or throws a 404 error if the key is malformed.
+     */
+    private static Key<Conference> parseConferenceKey(String websafeConferenceKey)
+            throws NotFoundException {
+        try {
+            return KeyCache.parse(websafeConferenceKey);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new NotFoundException("No Conference found with key: " + websafeConferenceKey);
+        }
+    }
+
+    /**
+     * Runs the transactions of a registration or unregistration. Contention and unexpected
+     * exceptions are turned into result codes, and the unexpected ones are logged as bugs.
+     */
+    private static WrappedBoolean runRegistration(String name, Work<WrappedBoolean> work) {
+        try {
+            return work.run();
+        } catch (Transactions.ContentionException e) {
+            LOG.log(Level.WARNING, name + " lost to concurrent registrations", e);
+            return new WrappedBoolean(ResultCode.CONTENTION, "Too much contention");
+        } catch (RuntimeException e) {
+            LOG.log(Level.SEVERE, name + " failed", e);
+            return new WrappedBoolean(ResultCode.UNKNOWN, "Unknown exception");
+        }
+    }
+
+    /**
+     * Applies a SeatChange whose seat has been booked or given back. A failure is only logged,
+     * since the seat change is committed and the recovery task will apply it.
+     *
+     * @return the outcome of the change, null when it is left to the recovery task.
+     */
+    private static SeatChanges.Outcome applySeatChange(Key<SeatChange> changeKey,
+                                                       Profile profile) {
+        try {
+            return SeatChanges.apply(changeKey, profile);
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not apply " + changeKey
+                    + ", the recovery task will apply it", e);
+            return null;
+        }
+    }
+
+    private void throwError(WrappedBoolean result) throws NotFoundException, ConflictException,
+            ForbiddenException, ServiceUnavailableException {
+        switch (result.getCode()) {
+            case OK:
+                return;
+            case NOT_FOUND:
+                throw new NotFoundException(result.getReason());
+            case ALREADY_REGISTERED:
                 throw new ConflictException("You have already registered");
-            }
-            else if (result.getReason() == "No seats available") {
+            case NO_SEATS:
                 throw new ConflictException("There are no seats available");
-            }
-            else if (result.getReason() == "User not registered") {
+            case NOT_REGISTERED:
                 throw new ConflictException("You have not registered yet");
-            }
-            else {
+            case RESERVATION_REQUIRED:
+                throw new ConflictException("Registrations for this conference go through "
+                        + "reservations");
+            case CONTENTION:
+                throw new ServiceUnavailableException("Too many concurrent registrations, "
+                        + "try again");
+            case PENDING:
+                throw new ServiceUnavailableException("Your request is still being processed, "
+                        + "check again later");
+            default:
                 throw new ForbiddenException("Unknown exception");
-            }
         }
     }
 
@@ -545,12 +1488,12 @@ public class ConferenceApi {
             httpMethod = HttpMethod.GET
     )
     public Announcement getAnouncement() {
-        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-        String announcementKey = Constants.MEMCACHE_ANNOUNCEMENTS_KEY;
-        Object message = memcacheService.get(announcementKey);
+        // Served from the instance memory, which is revalidated every few seconds
+        String message = Announcements.get();
         if (message != null) {
-            return new Announcement(message.toString());
+            return new Announcement(message);
         }
         return null;
     }
+
 }
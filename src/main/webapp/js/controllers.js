@@ -419,11 +419,17 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
 
     /**
      * Invokes the conference.queryConferences API.
+     *
+     * @param pageToken the token returned with the previous page, to append the next page
+     *     to the conferences. Starts from the first page when not specified.
      */
-    $scope.queryConferencesAll = function () {
+    $scope.queryConferencesAll = function (pageToken) {
         var sendFilters = {
             filters: []
         }
+        if (pageToken) {
+            sendFilters.cursor = pageToken;
+        }
         for (var i = 0; i < $scope.filters.length; i++) {
             var filter = $scope.filters[i];
             if (filter.field && filter.operator && filter.value) {
@@ -452,10 +458,13 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
                         $scope.alertStatus = 'success';
                         $log.info($scope.messages);
 
-                        $scope.conferences = [];
+                        if (!pageToken) {
+                            $scope.conferences = [];
+                        }
                         angular.forEach(resp.items, function (conference) {
                             $scope.conferences.push(conference);
                         });
+                        $scope.nextPageToken = resp.nextPageToken;
                     }
                     $scope.submitted = true;
                 });
@@ -541,7 +550,7 @@ conferenceApp.controllers.controller('ShowConferenceCtrl', function ($scope, $lo
  * @description
  * A controller used for the conference detail page.
  */
-conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $log, $routeParams, HTTP_ERRORS) {
+conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $log, $routeParams, $timeout, HTTP_ERRORS) {
     $scope.conference = {};
 
     $scope.isUserAttending = false;
@@ -575,21 +584,18 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
 
         $scope.loading = true;
         // If the user is attending the conference, updates the status message and available function.
-        gapi.client.conference.getProfile().execute(function (resp) {
+        gapi.client.conference.isAttending({
+            websafeConferenceKey: $routeParams.websafeConferenceKey
+        }).execute(function (resp) {
             $scope.$apply(function () {
                 $scope.loading = false;
                 if (resp.error) {
-                    // Failed to get a user profile.
-                } else {
-                    var profile = resp.result;
-                    for (var i = 0; i < profile.conferenceKeysToAttend.length; i++) {
-                        if ($routeParams.websafeConferenceKey == profile.conferenceKeysToAttend[i]) {
-                            // The user is attending the conference.
-                            $scope.alertStatus = 'info';
-                            $scope.messages = 'You are attending this conference';
-                            $scope.isUserAttending = true;
-                        }
-                    }
+                    // Failed to get the registration.
+                } else if (resp.result.result) {
+                    // The user is attending the conference.
+                    $scope.alertStatus = 'info';
+                    $scope.messages = 'You are attending this conference';
+                    $scope.isUserAttending = true;
                 }
             });
         });
@@ -600,6 +606,10 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
      * Invokes the conference.registerForConference method.
      */
     $scope.registerForConference = function () {
+        if ($scope.conference.reservationQueue) {
+            $scope.reserveForConference();
+            return;
+        }
         $scope.loading = true;
         gapi.client.conference.registerForConference({
             websafeConferenceKey: $routeParams.websafeConferenceKey
@@ -633,6 +643,66 @@ conferenceApp.controllers.controller('ConferenceDetailCtrl', function ($scope, $
         });
     };
 
+    /**
+     * Invokes the conference.reserveForConference method, for conferences in reservation queue mode,
+     * and polls the reservation until it has been decided.
+     */
+    $scope.reserveForConference = function () {
+        $scope.loading = true;
+        gapi.client.conference.reserveForConference({
+            websafeConferenceKey: $routeParams.websafeConferenceKey
+        }).execute(function (resp) {
+            $scope.$apply(function () {
+                if (resp.error) {
+                    $scope.loading = false;
+                    var errorMessage = resp.error.message || '';
+                    $scope.messages = 'Failed to register for the conference : ' + errorMessage;
+                    $scope.alertStatus = 'warning';
+                    $log.error($scope.messages);
+                    if (resp.code && resp.code == HTTP_ERRORS.UNAUTHORIZED) {
+                        oauth2Provider.showLoginModal();
+                    }
+                } else {
+                    $scope.messages = 'Your reservation is being processed';
+                    $scope.alertStatus = 'info';
+                    $scope.pollReservation(resp.result.websafeKey);
+                }
+            });
+        });
+    };
+
+    /**
+     * Invokes the conference.getReservation method until the reservation is no longer pending.
+     */
+    $scope.pollReservation = function (websafeReservationKey) {
+        gapi.client.conference.getReservation({
+            websafeReservationKey: websafeReservationKey
+        }).execute(function (resp) {
+            $scope.$apply(function () {
+                if (!resp.error && resp.result.status == 'PENDING') {
+                    $timeout(function () {
+                        $scope.pollReservation(websafeReservationKey);
+                    }, 1000);
+                    return;
+                }
+                $scope.loading = false;
+                if (resp.error) {
+                    $scope.messages = 'Failed to get the reservation : ' + (resp.error.message || '');
+                    $scope.alertStatus = 'warning';
+                    $log.error($scope.messages);
+                } else if (resp.result.status == 'ACCEPTED') {
+                    $scope.messages = 'Registered for the conference';
+                    $scope.alertStatus = 'success';
+                    $scope.isUserAttending = true;
+                    $scope.conference.seatsAvailable = $scope.conference.seatsAvailable - 1;
+                } else {
+                    $scope.messages = 'Failed to register for the conference : ' + resp.result.reason;
+                    $scope.alertStatus = 'warning';
+                }
+            });
+        });
+    };
+
     /**
      * Invokes the conference.unregisterForConference method.
      */
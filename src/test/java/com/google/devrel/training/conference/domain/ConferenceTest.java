@@ -6,6 +6,8 @@ import static org.junit.Assert.*;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.EntityCache;
+import com.google.devrel.training.conference.service.KeyCache;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -50,6 +52,7 @@ public class ConferenceTest {
     @Before
     public void setUp() throws Exception {
         helper.setUp();
+        EntityCache.clear();
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
         startDate = dateFormat.parse("03/25/2014");
         endDate = dateFormat.parse("03/26/2014");
@@ -92,6 +95,16 @@ public class ConferenceTest {
         assertNotSame(endDate, conference.getEndDate());
     }
 
+    @Test
+    public void testWebsafeKey() throws Exception {
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
+        String websafeKey = conference.getWebsafeKey();
+        assertEquals(conference.getKey().getString(), websafeKey);
+        assertSame(websafeKey, conference.getWebsafeKey());
+        assertEquals(conference.getKey(), KeyCache.parse(websafeKey));
+        assertSame(KeyCache.parse(websafeKey), KeyCache.parse(websafeKey));
+    }
+
     @Test
     public void testGetOrganizerDisplayName() throws Exception {
         String displayName = "Udacity Student";
@@ -101,6 +114,18 @@ public class ConferenceTest {
         assertEquals(displayName, conference.getOrganizerDisplayName());
     }
 
+    @Test
+    public void testAttachOrganizer() throws Exception {
+        String displayName = "Udacity Student";
+        Profile profile = new Profile(ORGANIZER_USER_ID, displayName, "", null);
+        Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
+        // The attached name is used without looking up the Profile.
+        conference.attachOrganizer(profile);
+        assertEquals(displayName, conference.getOrganizerDisplayName());
+        conference.attachOrganizer(null);
+        assertEquals(ORGANIZER_USER_ID, conference.getOrganizerDisplayName());
+    }
+
     @Test
     public void testBookSeats() throws Exception {
         Conference conference = new Conference(ID, ORGANIZER_USER_ID, conferenceForm);
@@ -11,8 +11,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Tests for Profile POJO.
@@ -65,12 +65,15 @@ public class ProfileTest {
 
     @Test
     public void testListValues() throws Exception {
-        List<String> conferenceKeys = new ArrayList<>();
+        Set<String> conferenceKeys = new LinkedHashSet<>();
         assertEquals(conferenceKeys, profile.getConferenceKeysToAttend());
         Key<Conference> conferenceKey = Key.create(Conference.class, 123L);
-        profile.addToConferenceKeysToAttend(conferenceKey.getString());
+        // Registrations are stored as Registration entities, and attached for the response.
         conferenceKeys.add(conferenceKey.getString());
+        profile.attachConferenceKeysToAttend(conferenceKeys);
         assertEquals(conferenceKeys, profile.getConferenceKeysToAttend());
+        assertFalse(profile.hasLegacyConferenceKey(conferenceKey.getString()));
+        assertFalse(profile.removeLegacyConferenceKey(conferenceKey.getString()));
     }
 
 }
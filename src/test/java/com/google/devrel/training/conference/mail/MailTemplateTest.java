@@ -0,0 +1,46 @@
+package com.google.devrel.training.conference.mail;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tests for MailTemplate.
+ */
+public class MailTemplateTest {
+
+    @Test
+    public void testRender() throws Exception {
+        MailTemplate template = MailTemplate.compile("Name: {name}\nMax Attendees: {max}\n");
+        Map<String, Object> values =
+                ImmutableMap.<String, Object>of("name", "GCP Live", "max", 500);
+        assertEquals("Name: GCP Live\nMax Attendees: 500\n", template.render(values));
+        // The same template renders other values.
+        assertEquals("Name: Google I/O\nMax Attendees: 1000\n", template.render(
+                ImmutableMap.<String, Object>of("name", "Google I/O", "max", 1000)));
+    }
+
+    @Test
+    public void testMissingValues() throws Exception {
+        MailTemplate template = MailTemplate.compile("{greeting}, {name}!");
+        assertEquals(", !", template.render(Collections.<String, Object>emptyMap()));
+        assertEquals("Hi, !", template.render(ImmutableMap.of("greeting", "Hi")));
+    }
+
+    @Test
+    public void testPlaceholdersOnly() throws Exception {
+        assertEquals("ab", MailTemplate.compile("{a}{b}")
+                .render(ImmutableMap.of("a", "a", "b", "b")));
+        assertEquals("No placeholders", MailTemplate.compile("No placeholders")
+                .render(Collections.<String, Object>emptyMap()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnclosedPlaceholder() throws Exception {
+        MailTemplate.compile("Name: {name");
+    }
+}
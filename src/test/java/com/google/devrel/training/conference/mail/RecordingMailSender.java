@@ -0,0 +1,95 @@
+package com.google.devrel.training.conference.mail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+
+/**
+ * Keeps the e-mails in memory instead of sending them, for tests.
+ *
+ * Sending to an address passed to failFor() fails, to exercise the retries.
+ */
+public class RecordingMailSender implements MailSender {
+
+    private final Session session = Session.getInstance(new Properties(), null);
+
+    private final String fromAddress;
+
+    private final List<Message> messages = new ArrayList<>();
+
+    private final Set<String> failingAddresses = new HashSet<>();
+
+    private int connections;
+
+    public RecordingMailSender(final String fromAddress) {
+        this.fromAddress = fromAddress;
+    }
+
+    @Override
+    public Session getSession() {
+        return session;
+    }
+
+    @Override
+    public String getFromAddress() {
+        return fromAddress;
+    }
+
+    @Override
+    public synchronized Connection connect() {
+        connections++;
+        return new Connection() {
+            @Override
+            public void send(Message message) throws MessagingException {
+                record(message);
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    private synchronized void record(Message message) throws MessagingException {
+        for (Address recipient : message.getAllRecipients()) {
+            String address = recipient instanceof InternetAddress
+                    ? ((InternetAddress) recipient).getAddress() : recipient.toString();
+            if (failingAddresses.contains(address)) {
+                throw new SendFailedException("Rejected " + recipient);
+            }
+        }
+        messages.add(message);
+    }
+
+    /**
+     * Makes sending to the given address fail from now on.
+     *
+     * @param address the e-mail address of the recipient.
+     */
+    public synchronized void failFor(String address) {
+        failingAddresses.add(address);
+    }
+
+    /**
+     * Returns the messages sent so far.
+     */
+    public synchronized List<Message> getMessages() {
+        return Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+
+    /**
+     * Returns the number of connections opened so far, i.e. the number of batches.
+     */
+    public synchronized int getConnections() {
+        return connections;
+    }
+}
@@ -0,0 +1,119 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo.TaskStateInfo;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for publishing the announcement of the nearly sold out Conferences.
+ */
+public class AnnouncementsTest {
+
+    private static final String NAME = "GCP Live";
+
+    private static final int CAP = 10;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy(),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+    private Conference conference;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        EntityCache.clear();
+        Announcements.clearLocalCache();
+        // The local task queue outlives the helper, so drop the tasks of the other tests.
+        LocalTaskQueueTestConfig.getLocalTaskQueue().flushQueue("default");
+        conference = new Conference(1001L, "123456789",
+                new ConferenceForm(NAME, null, null, null, null, null, CAP));
+        ofy().save().entity(conference).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        assertNull(Announcements.publish());
+        assertNull(Announcements.get());
+
+        conference.bookSeats(CAP - 2);
+        NearlySoldOutIndex.seatsChanged(conference, CAP);
+        ofy().save().entity(conference).now();
+        assertEquals("Last chance to attend! The following conferences are nearly sold out: "
+                + NAME, Announcements.publish());
+        assertEquals(Announcements.publish(), Announcements.get());
+    }
+
+    @Test
+    public void testGetFromInstanceMemory() throws Exception {
+        conference.bookSeats(CAP - 2);
+        NearlySoldOutIndex.seatsChanged(conference, CAP);
+        ofy().save().entity(conference).now();
+        String announcement = Announcements.publish();
+        assertNotNull(announcement);
+
+        // The instance serves the announcement without going to memcache.
+        MemcacheServiceFactory.getMemcacheService().delete(
+                Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+        assertEquals(announcement, Announcements.get());
+        // Another instance finds nothing until the announcement is published again.
+        Announcements.clearLocalCache();
+        assertNull(Announcements.get());
+
+        // Another instance reads the published announcement from memcache.
+        Announcements.publish();
+        Announcements.clearLocalCache();
+        assertEquals(announcement, Announcements.get());
+    }
+
+    @Test
+    public void testScheduleRefresh() throws Exception {
+        // Crossing the threshold schedules a refresh.
+        long start = System.currentTimeMillis();
+        conference.bookSeats(CAP - 2);
+        NearlySoldOutIndex.seatsChanged(conference, CAP);
+        assertEquals(1, getRefreshTasks().size());
+
+        // Changes in the same window share it.
+        Announcements.scheduleRefresh();
+        Announcements.scheduleRefresh();
+        int tasks = getRefreshTasks().size();
+        // The windows are 2 seconds long, so the calls may have straddled two of them.
+        assertTrue(tasks == 1
+                || (tasks == 2 && start / 2000 != System.currentTimeMillis() / 2000));
+    }
+
+    private static List<TaskStateInfo> getRefreshTasks() {
+        List<TaskStateInfo> tasks = new ArrayList<>();
+        for (TaskStateInfo task : LocalTaskQueueTestConfig.getLocalTaskQueue()
+                .getQueueStateInfo().get("default").getTaskInfo()) {
+            if (task.getUrl().equals("/tasks/refresh_announcement")) {
+                tasks.add(task);
+            }
+        }
+        return tasks;
+    }
+}
@@ -0,0 +1,187 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConfirmationEmail;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.mail.MailSenders;
+import com.google.devrel.training.conference.mail.RecordingMailSender;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import javax.mail.Message;
+import javax.mail.internet.InternetAddress;
+
+/**
+ * Tests for sending the confirmation e-mails in batches.
+ */
+public class ConfirmationEmailsTest {
+
+    private static final String NAME = "GCP Live";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    private final RecordingMailSender mailSender = new RecordingMailSender("noreply@example.com");
+
+    private Conference conference;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        EntityCache.clear();
+        MailSenders.set(mailSender);
+        conference = new Conference(1001L, "123456789",
+                new ConferenceForm(NAME, null, null, null, null, null, 500));
+        ofy().save().entity(conference).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MailSenders.set(null);
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        int count = 150;
+        for (int i = 0; i < count; i++) {
+            enqueue("user" + i);
+        }
+        assertFalse(ConfirmationEmails.drain());
+        // One connection per batch of 100.
+        assertEquals(2, mailSender.getConnections());
+        assertEquals(count, mailSender.getMessages().size());
+        assertEquals(0, ofy().load().type(ConfirmationEmail.class).count());
+    }
+
+    @Test
+    public void testFailureDoesNotHoldUpTheBatch() throws Exception {
+        mailSender.failFor("user2@example.com");
+        enqueue("user1");
+        enqueue("user2");
+
+        assertFalse(ConfirmationEmails.drain());
+        // Both e-mails go over one connection, and only the failed one is kept for a retry.
+        assertEquals(1, mailSender.getConnections());
+        List<Message> messages = mailSender.getMessages();
+        assertEquals(1, messages.size());
+        assertEquals("user1@example.com",
+                ((InternetAddress) messages.get(0).getAllRecipients()[0]).getAddress());
+        ConfirmationEmail pending = loadPending();
+        assertEquals("user2@example.com", pending.getEmail());
+        assertEquals(1, pending.getFailedAttempts());
+
+        // The failed e-mail is not retried before its backoff has passed.
+        assertFalse(ConfirmationEmails.drain());
+        assertEquals(1, mailSender.getMessages().size());
+    }
+
+    @Test
+    public void testRendering() throws Exception {
+        conference = new Conference(1002L, "123456789", new ConferenceForm(NAME, null,
+                ImmutableList.of("Cloud", "Platform"), "Mountain View", null, null, 500));
+        ofy().save().entity(conference).now();
+        enqueue("user1");
+        assertFalse(ConfirmationEmails.drain());
+        Message message = mailSender.getMessages().get(0);
+        assertEquals("You created a new Conference!", message.getSubject());
+        assertEquals("noreply@example.com",
+                ((InternetAddress) message.getFrom()[0]).getAddress());
+        // The e-mail is rendered from the Conference loaded by its key.
+        String body = (String) message.getContent();
+        assertTrue(body.contains("Name: " + NAME + "\n"));
+        assertTrue(body.contains("City: Mountain View\n"));
+        assertTrue(body.contains("Topics: Cloud, Platform\n"));
+        assertTrue(body.contains("Max Attendees: 500\n"));
+    }
+
+    @Test
+    public void testDeletedConference() throws Exception {
+        enqueue("user1");
+        ofy().delete().entity(conference).now();
+        assertFalse(ConfirmationEmails.drain());
+        assertTrue(mailSender.getMessages().isEmpty());
+        assertEquals(0, ofy().load().type(ConfirmationEmail.class).count());
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        mailSender.failFor("user1@example.com");
+        enqueue("user1");
+        for (int attempt = 1; attempt < 10; attempt++) {
+            long now = System.currentTimeMillis();
+            assertFalse(ConfirmationEmails.drain());
+            ConfirmationEmail pending = loadPending();
+            assertEquals(attempt, pending.getFailedAttempts());
+            // The backoff starts at 30 seconds and doubles after every failure, up to an hour.
+            long expectedBackoff = Math.min(30 * 1000L << (attempt - 1), 60 * 60 * 1000L);
+            long backoff = pending.getNextAttemptAt() - now;
+            assertTrue(backoff >= expectedBackoff && backoff < expectedBackoff + 5000);
+            makeDue(pending);
+        }
+        // The e-mail is dropped after the last attempt.
+        assertFalse(ConfirmationEmails.drain());
+        assertEquals(0, ofy().load().type(ConfirmationEmail.class).count());
+        assertTrue(mailSender.getMessages().isEmpty());
+    }
+
+    @Test
+    public void testClaimRechecksTheLease() throws Exception {
+        enqueue("user1");
+        enqueue("user2");
+        List<Key<ConfirmationEmail>> keys =
+                ofy().load().type(ConfirmationEmail.class).keys().list();
+        long now = System.currentTimeMillis();
+        // Another worker leased the first e-mail after this one ran its query.
+        ConfirmationEmail leased = ofy().load().key(keys.get(0)).now();
+        leased.lease(now + 60 * 1000);
+        ofy().save().entity(leased).now();
+        ofy().clear();
+
+        List<ConfirmationEmail> claimed = ConfirmationEmails.claim(keys, now);
+        assertEquals(1, claimed.size());
+        assertEquals(keys.get(1), claimed.get(0).getKey());
+        // The claimed e-mail is leased too, so a second claim gets nothing.
+        assertTrue(ConfirmationEmails.claim(keys, now).isEmpty());
+    }
+
+    private void enqueue(String userId) {
+        final Profile profile = new Profile(userId, userId, userId + "@example.com",
+                TeeShirtSize.NOT_SPECIFIED);
+        // Like createConference, so the e-mail is saved once the transaction commits.
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                ConfirmationEmails.enqueue(profile, conference);
+            }
+        });
+    }
+
+    private static ConfirmationEmail loadPending() {
+        ofy().clear();
+        List<ConfirmationEmail> pending = ofy().load().type(ConfirmationEmail.class).list();
+        assertEquals(1, pending.size());
+        assertTrue(pending.get(0).getNextAttemptAt() > System.currentTimeMillis());
+        return pending.get(0);
+    }
+
+    private static void makeDue(ConfirmationEmail email) {
+        email.lease(System.currentTimeMillis());
+        ofy().save().entity(email).now();
+    }
+}
@@ -0,0 +1,25 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMaxMicros());
+        // The values are reported within an eighth of their actual value.
+        assertTrue(Math.abs(histogram.getValueAtPercentile(50) - 500) <= 500 / 8);
+        assertTrue(Math.abs(histogram.getValueAtPercentile(99) - 990) <= 990 / 8);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+}
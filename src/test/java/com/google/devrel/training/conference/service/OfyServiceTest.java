@@ -0,0 +1,85 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Tests for the cached loads of OfyService.
+ */
+public class OfyServiceTest {
+
+    private static final String USER_ID = "123456789";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+
+    private Conference conference1;
+
+    private Conference conference2;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        EntityCache.clear();
+        conference1 = new Conference(1001L, USER_ID,
+                new ConferenceForm("GCP Live", null, null, null, null, null, 500));
+        conference2 = new Conference(1002L, USER_ID,
+                new ConferenceForm("Google I/O", null, null, null, null, null, 1000));
+        ofy().save().entities(conference1, conference2).now();
+        ofy().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testLoadCachedAsync() throws Exception {
+        Key<Conference> missingKey = Key.create(conference1.getProfileKey(), Conference.class, 1L);
+        // Both lookups are in flight before either is read.
+        Result<Map<Key<Conference>, Conference>> conferences = OfyService.loadCachedAsync(
+                ImmutableList.of(conference1.getKey(), conference2.getKey(), missingKey));
+        Result<Conference> missing = OfyService.loadCachedAsync(missingKey);
+        assertEquals(2, conferences.now().size());
+        assertEquals("GCP Live", conferences.now().get(conference1.getKey()).getName());
+        assertEquals("Google I/O", conferences.now().get(conference2.getKey()).getName());
+        assertNull(missing.now());
+
+        // The entities loaded are kept by the instance, so a later load skips the datastore.
+        DatastoreServiceFactory.getDatastoreService().delete(conference1.getKey().getRaw());
+        ofy().clear();
+        assertEquals("GCP Live", OfyService.loadCached(conference1.getKey()).getName());
+    }
+
+    @Test
+    public void testLoadCachedAsyncInTransaction() throws Exception {
+        OfyService.loadCached(conference1.getKey());
+        DatastoreServiceFactory.getDatastoreService().delete(conference1.getKey().getRaw());
+        ofy().clear();
+        // A transaction reads the datastore, not the EntityCache.
+        assertNull(ofy().transact(new Work<Conference>() {
+            @Override
+            public Conference run() {
+                return OfyService.loadCachedAsync(conference1.getKey()).now();
+            }
+        }));
+    }
+}
@@ -0,0 +1,75 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for attaching the organizers' display names to the Conferences of a response.
+ */
+public class OrganizerLoaderTest {
+
+    private static final String ORGANIZER_ID = "123456789";
+
+    private static final String DISPLAY_NAME = "Your Name Here";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        EntityCache.clear();
+        ofy().save().entity(new Profile(ORGANIZER_ID, DISPLAY_NAME, "example@gmail.com",
+                TeeShirtSize.NOT_SPECIFIED)).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testAttachOrganizers() throws Exception {
+        Conference withProfile = createConference(1001L, ORGANIZER_ID);
+        Conference withoutProfile = createConference(1002L, "nobody");
+        List<Conference> conferences = ImmutableList.of(withProfile, withoutProfile);
+        Result<Map<Key<Profile>, Profile>> organizers = OrganizerLoader.loadOrganizers(conferences);
+        assertSame(conferences, OrganizerLoader.attachOrganizers(conferences, organizers));
+        assertEquals(DISPLAY_NAME, withProfile.getOrganizerDisplayName());
+        // Without a Profile, the organizer is shown by userId.
+        assertEquals("nobody", withoutProfile.getOrganizerDisplayName());
+    }
+
+    @Test
+    public void testStoredDisplayNames() throws Exception {
+        Conference conference = createConference(1001L, ORGANIZER_ID);
+        conference.attachOrganizer(null);
+        // Only the Conferences saved without the organizer's name need a lookup.
+        assertTrue(OrganizerLoader.loadOrganizers(ImmutableList.of(conference)).now().isEmpty());
+        OrganizerLoader.attachOrganizers(ImmutableList.of(conference));
+        assertEquals(ORGANIZER_ID, conference.getOrganizerDisplayName());
+    }
+
+    private static Conference createConference(long id, String organizerUserId) {
+        return new Conference(id, organizerUserId,
+                new ConferenceForm("GCP Live", null, null, null, null, null, 500));
+    }
+}
@@ -0,0 +1,114 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.api.server.spi.response.ConflictException;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.RegistrationResult;
+import com.google.devrel.training.conference.domain.Reservation;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.RegistrationsForm;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for registering through the reservation queue.
+ */
+public class ReservationQueueTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final int CAP = 500;
+
+    /**
+     * The drain queries the pending reservations and registers in cross-group transactions,
+     * so the jobs are applied right away on a High Replication datastore.
+     */
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setApplyAllHighRepJobPolicy());
+
+    private ConferenceApi conferenceApi;
+
+    private Conference conference;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        EntityCache.clear();
+        conferenceApi = new ConferenceApi();
+        conference = new Conference(1001L, USER_ID,
+                new ConferenceForm("GCP Live", null, null, null, null, null, CAP));
+        // Leave two seats for three users.
+        conference.bookSeats(CAP - 2);
+        ofy().save().entity(conference).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testReservationQueue() throws Exception {
+        User organizer = new User("organizer@example.com", "gmail.com", USER_ID);
+        conferenceApi.setReservationQueue(organizer, conference.getWebsafeKey(), true);
+
+        User user1 = new User("user1@example.com", "gmail.com", "user1");
+        try {
+            conferenceApi.registerForConference(user1, conference.getWebsafeKey(), null);
+            fail("Registrations should go through the reservation queue.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        List<RegistrationResult> results = conferenceApi.registerForConferences(organizer,
+                new RegistrationsForm(ImmutableList.of(new RegistrationsForm.Entry(
+                        USER_ID, conference.getWebsafeKey()))), null);
+        assertEquals("Reservation required", results.get(0).getReason());
+        List<User> users = ImmutableList.of(user1,
+                new User("user2@example.com", "gmail.com", "user2"),
+                user1,
+                new User("user3@example.com", "gmail.com", "user3"));
+        List<Reservation> reservations = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            reservations.add(conferenceApi.reserveForConference(
+                    users.get(i), conference.getWebsafeKey(), "reserve-" + i));
+            // Reservations are served in the order they were made.
+            Thread.sleep(2);
+        }
+        // A retry returns the Reservation made by the first attempt.
+        assertEquals(reservations.get(3).getWebsafeKey(), conferenceApi.reserveForConference(
+                users.get(3), conference.getWebsafeKey(), "reserve-3").getWebsafeKey());
+        assertEquals(Reservation.Status.PENDING, reservations.get(0).getStatus());
+
+        assertFalse(ReservationQueue.drain(conference.getKey()));
+        ofy().clear();
+        String[] reasons = {"Registration successful", "Registration successful",
+                "Already registered", "No seats available"};
+        for (int i = 0; i < reservations.size(); i++) {
+            Reservation reservation = conferenceApi.getReservation(
+                    users.get(i), reservations.get(i).getWebsafeKey());
+            assertEquals(i < 2 ? Reservation.Status.ACCEPTED : Reservation.Status.REJECTED,
+                    reservation.getStatus());
+            assertEquals(reasons[i], reservation.getReason());
+        }
+        assertEquals(0, ofy().load().key(conference.getKey()).now().getSeatsAvailable());
+        Profile profile = ofy().load().key(Key.create(Profile.class, "user1")).now();
+        assertEquals(ImmutableSet.of(conference.getWebsafeKey()),
+                Attendance.getConferenceKeysToAttend(profile));
+    }
+}
@@ -0,0 +1,58 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for counting the RPCs made by each endpoint.
+ */
+public class RpcAccountingTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private Conference conference;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        conference = new Conference(1001L, "123456789",
+                new ConferenceForm("GCP Live", null, null, null, null, null, 500));
+        ofy().save().entity(conference).now();
+        ofy().clear();
+        RpcAccounting.install();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RpcAccounting.uninstall();
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testRpcAccounting() throws Exception {
+        RpcAccounting.begin("testRpcAccounting");
+        ofy().load().key(conference.getKey()).now();
+        RpcAccounting.RequestRpcs rpcs = RpcAccounting.end();
+        assertTrue(rpcs.getRpcCount("datastore_v3.Get") > 0);
+        assertEquals(0, rpcs.getRpcCount("datastore_v3.Put"));
+        RpcAccounting.EndpointStats stats = RpcAccounting.getStats().get("testRpcAccounting");
+        assertEquals(1, stats.getRequests());
+        assertEquals(rpcs.getRpcCount("datastore_v3.Get"), stats.getCalls("datastore_v3.Get"));
+
+        // The calls made outside begin() and end() are not charged.
+        ofy().clear();
+        ofy().load().key(conference.getKey()).now();
+        assertEquals(1, stats.getRequests());
+        assertEquals(rpcs.getRpcCount("datastore_v3.Get"), stats.getCalls("datastore_v3.Get"));
+    }
+}
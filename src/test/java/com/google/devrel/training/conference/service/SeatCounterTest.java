@@ -0,0 +1,92 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the batched lookups of the available seats of sharded Conferences.
+ */
+public class SeatCounterTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final int CAP = 120;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalMemcacheServiceTestConfig());
+
+    private final MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+
+    private Conference sharded;
+
+    private Conference unsharded;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        EntityCache.clear();
+        sharded = new Conference(1001L, USER_ID,
+                new ConferenceForm("GCP Live", null, null, null, null, null, CAP));
+        ofy().save().entities(SeatCounter.createShards(sharded)).now();
+        unsharded = new Conference(1002L, USER_ID,
+                new ConferenceForm("Google I/O", null, null, null, null, null, CAP));
+        ofy().save().entities(sharded, unsharded).now();
+        assertTrue(sharded.getSeatShardCount() > 1);
+        ofy().transact(new Work<Integer>() {
+            @Override
+            public Integer run() {
+                return SeatCounter.bookSeats(sharded, 3, SeatCounter.MAX_SHARDS);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testAttachSeatsAvailable() throws Exception {
+        String cacheKey = Constants.MEMCACHE_SEATS_AVAILABLE_PREFIX + sharded.getWebsafeKey();
+        List<Conference> conferences = ImmutableList.of(sharded, unsharded);
+
+        // A miss is recomputed from the shards, and cached for the next response.
+        SeatCounter.attachSeatsAvailable(conferences, SeatCounter.loadSeatsAvailable(
+                ImmutableList.of(sharded.getWebsafeKey(), unsharded.getWebsafeKey())));
+        assertEquals(CAP - 3, sharded.getSeatsAvailable());
+        assertEquals(CAP, unsharded.getSeatsAvailable());
+        assertEquals(CAP - 3L, memcacheService.get(cacheKey));
+
+        // A hit is used as is.
+        memcacheService.put(cacheKey, 7L);
+        SeatCounter.attachSeatsAvailable(conferences, SeatCounter.loadSeatsAvailable(
+                ImmutableList.of(sharded.getWebsafeKey())));
+        assertEquals(7, sharded.getSeatsAvailable());
+    }
+
+    @Test
+    public void testLoadSeatsAvailableWithoutConferences() throws Exception {
+        assertTrue(SeatCounter.loadSeatsAvailable(Collections.<String>emptyList())
+                .now().isEmpty());
+    }
+}
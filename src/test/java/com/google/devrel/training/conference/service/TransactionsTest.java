@@ -0,0 +1,114 @@
+package com.google.devrel.training.conference.service;
+
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+
+/**
+ * Tests for running transactions with retries.
+ */
+public class TransactionsTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        helper.tearDown();
+    }
+
+    @Test
+    public void testRetries() throws Exception {
+        final int[] runs = {0};
+        String result = Transactions.run("testRetries", new Work<String>() {
+            @Override
+            public String run() {
+                if (++runs[0] < 3) {
+                    throw new ConcurrentModificationException();
+                }
+                return "committed";
+            }
+        });
+        assertEquals("committed", result);
+        Transactions.Stats stats = Transactions.getStats().get("testRetries");
+        assertEquals(3, stats.getAttempts());
+        assertEquals(2, stats.getConflicts());
+        assertEquals(1, stats.getCommits());
+        assertEquals(0, stats.getFailures());
+    }
+
+    @Test
+    public void testOtherExceptionsAreNotRetried() throws Exception {
+        try {
+            Transactions.run("testOtherExceptions", new Work<String>() {
+                @Override
+                public String run() {
+                    throw new IllegalStateException();
+                }
+            });
+            fail("The exception should be thrown.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        Transactions.Stats stats = Transactions.getStats().get("testOtherExceptions");
+        assertEquals(1, stats.getAttempts());
+        assertEquals(0, stats.getConflicts());
+        assertEquals(1, stats.getFailures());
+    }
+
+    @Test
+    public void testGiveUpAfterMaxAttempts() throws Exception {
+        try {
+            Transactions.run("testMaxAttempts", new Work<String>() {
+                @Override
+                public String run() {
+                    throw new ConcurrentModificationException();
+                }
+            });
+            fail("The transaction should give up.");
+        } catch (Transactions.ContentionException e) {
+            assertTrue(e.getCause() instanceof ConcurrentModificationException);
+        }
+        Transactions.Stats stats = Transactions.getStats().get("testMaxAttempts");
+        assertEquals(6, stats.getAttempts());
+        assertEquals(6, stats.getConflicts());
+        assertEquals(0, stats.getCommits());
+        assertEquals(1, stats.getFailures());
+    }
+
+    @Test
+    public void testGiveUpAfterDeadline() throws Exception {
+        try {
+            Transactions.run("testDeadline", new Work<String>() {
+                @Override
+                public String run() {
+                    // Lose only once the 5 second deadline has passed.
+                    try {
+                        Thread.sleep(5 * 1000 + 100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new ConcurrentModificationException();
+                }
+            });
+            fail("The transaction should give up.");
+        } catch (Transactions.ContentionException e) {
+            // Expected.
+        }
+        Transactions.Stats stats = Transactions.getStats().get("testDeadline");
+        assertEquals(1, stats.getAttempts());
+        assertEquals(1, stats.getFailures());
+    }
+}
@@ -0,0 +1,83 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.collect.ImmutableList;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.EntityCache;
+import com.google.devrel.training.conference.service.NearlySoldOutIndex;
+import com.google.devrel.training.conference.service.SeatCounter;
+import com.googlecode.objectify.Work;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the task copying the sum of the seat shards into a Conference.
+ */
+public class SyncSeatsServletTest {
+
+    private static final String NAME = "GCP Live";
+
+    private static final int CAP = 6;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+
+    private Conference conference;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        EntityCache.clear();
+        conference = new Conference(1, "123456789",
+                new ConferenceForm(NAME, null, null, null, null, null, CAP));
+        ofy().save().entities(SeatCounter.createShards(conference)).now();
+        ofy().save().entity(conference).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testNearlySoldOutIndex() throws Exception {
+        // Bookings from the shards leave the snapshot, and so the index, as they were.
+        bookSeats(CAP - 2);
+        assertTrue(NearlySoldOutIndex.getConferenceNames().isEmpty());
+        runTask();
+        assertEquals(2, loadConference().getStoredSeatsAvailable());
+        assertEquals(ImmutableList.of(NAME), NearlySoldOutIndex.getConferenceNames());
+
+        bookSeats(2);
+        runTask();
+        assertEquals(0, loadConference().getStoredSeatsAvailable());
+        assertTrue(NearlySoldOutIndex.getConferenceNames().isEmpty());
+    }
+
+    private void bookSeats(final int number) {
+        assertEquals(number, (int) ofy().transact(new Work<Integer>() {
+            @Override
+            public Integer run() {
+                return SeatCounter.bookSeats(conference, number, SeatCounter.MAX_SHARDS);
+            }
+        }));
+    }
+
+    private void runTask() throws Exception {
+        new SyncSeatsServlet().doPost(TaskRequests.request("websafeConferenceKey",
+                conference.getWebsafeKey()), TaskRequests.response());
+    }
+
+    private Conference loadConference() {
+        ofy().clear();
+        return ofy().load().key(conference.getKey()).now();
+    }
+}
@@ -0,0 +1,47 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Stubs of the requests and responses of task queue tasks, for calling task servlets directly.
+ */
+class TaskRequests {
+
+    /**
+     * Returns a request carrying the given task parameters.
+     */
+    static HttpServletRequest request(String name, String value) {
+        final Map<String, String> params = ImmutableMap.of(name, value);
+        return stub(HttpServletRequest.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getName().equals("getParameter") ? params.get(args[0]) : null;
+            }
+        });
+    }
+
+    /**
+     * Returns a response that ignores everything written to it.
+     */
+    static HttpServletResponse response() {
+        return stub(HttpServletResponse.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                handler));
+    }
+}
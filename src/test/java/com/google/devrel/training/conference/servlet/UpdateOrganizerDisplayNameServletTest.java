@@ -0,0 +1,94 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.EntityCache;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the task rewriting the organizer's display name in his/her conferences.
+ */
+public class UpdateOrganizerDisplayNameServletTest {
+
+    private static final String USER_ID = "123456789";
+
+    private static final String EMAIL = "example@gmail.com";
+
+    /**
+     * More conferences than the servlet saves in one batch.
+     */
+    private static final int CONFERENCES = 150;
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+
+    private Profile profile;
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        EntityCache.clear();
+        profile = new Profile(USER_ID, "Old Name", EMAIL, TeeShirtSize.NOT_SPECIFIED);
+        List<Conference> conferences = new ArrayList<>(CONFERENCES);
+        for (int i = 1; i <= CONFERENCES; i++) {
+            Conference conference = new Conference(i, USER_ID, new ConferenceForm(
+                    "Conference " + i, null, null, null, null, null, 10));
+            conference.attachOrganizer(profile);
+            conferences.add(conference);
+        }
+        ofy().save().entity(profile).now();
+        ofy().save().entities(conferences).now();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    @Test
+    public void testRename() throws Exception {
+        profile.update("New Name", null);
+        ofy().save().entity(profile).now();
+        runTask();
+        for (Conference conference : loadConferences()) {
+            assertEquals("New Name", conference.getOrganizerDisplayName());
+        }
+    }
+
+    @Test
+    public void testNullDisplayName() throws Exception {
+        ofy().save().entity(new Profile(USER_ID, null, EMAIL, TeeShirtSize.NOT_SPECIFIED)).now();
+        runTask();
+        for (Conference conference : loadConferences()) {
+            assertFalse(conference.hasOrganizerDisplayName());
+        }
+    }
+
+    private void runTask() throws Exception {
+        new UpdateOrganizerDisplayNameServlet().doPost(
+                TaskRequests.request("userId", USER_ID), TaskRequests.response());
+    }
+
+    private List<Conference> loadConferences() {
+        ofy().clear();
+        List<Conference> conferences = ofy().load().type(Conference.class)
+                .ancestor(Key.create(Profile.class, USER_ID)).list();
+        assertEquals(CONFERENCES, conferences.size());
+        return conferences;
+    }
+}
@@ -3,18 +3,29 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.CollectionResponse;
+import com.google.api.server.spi.response.ForbiddenException;
+import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.Profile;
 import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ConferenceQueryForm;
+import com.google.devrel.training.conference.service.EntityCache;
+import com.google.devrel.training.conference.service.NearlySoldOutIndex;
+import com.google.devrel.training.conference.service.QueryCache;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -85,6 +96,7 @@ public class ConferenceApiGlobalQueryTest {
     @Before
     public void setUp() throws Exception {
         helper.setUp();
+        EntityCache.clear();
         conferenceApi = new ConferenceApi();
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
 
@@ -119,7 +131,8 @@ public class ConferenceApiGlobalQueryTest {
     public void testEmptyQuery() throws Exception {
         // Empty query.
         ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm();
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(3, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -138,7 +151,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "Tokyo"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
     }
@@ -152,7 +166,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "Japan"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
     }
@@ -176,7 +191,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.EQ,
                         "6"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(1, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
     }
@@ -190,7 +206,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.GT,
                         "999"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -207,7 +224,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.LT,
                         "1001"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -224,7 +242,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.GTEQ,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -241,7 +260,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.LTEQ,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference2.", conferences.contains(conference2));
@@ -258,7 +278,8 @@ public class ConferenceApiGlobalQueryTest {
                         ConferenceQueryForm.Operator.NE,
                         "1000"
                 ));
-        List<Conference> conferences = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(
+                conferenceApi.queryConferences(conferenceQueryForm).getItems());
         assertEquals(2, conferences.size());
         assertTrue("The result should contain conference1.", conferences.contains(conference1));
         assertTrue("The result should contain conference3.", conferences.contains(conference3));
@@ -281,4 +302,179 @@ public class ConferenceApiGlobalQueryTest {
                         "6"
                 ));
     }
+
+    @Test
+    public void testQueryCacheInvalidation() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm();
+        assertEquals(3, conferenceApi.queryConferences(conferenceQueryForm).getItems().size());
+        // Served from the cache.
+        assertEquals(3, conferenceApi.queryConferences(conferenceQueryForm).getItems().size());
+
+        // A new conference is not visible until the cached result is invalidated,
+        // which createConference does.
+        ofy().save().entity(new Conference(1004L, USER_ID, new ConferenceForm(
+                NAME1, DESCRIPTION1, TOPICS1, CITY1, startDate1, endDate1, CAP1))).now();
+        assertEquals(3, conferenceApi.queryConferences(conferenceQueryForm).getItems().size());
+        QueryCache.invalidate();
+        assertEquals(4, conferenceApi.queryConferences(conferenceQueryForm).getItems().size());
+    }
+
+    @Test
+    public void testCanonicalForm() throws Exception {
+        ConferenceQueryForm.Filter cityFilter = new ConferenceQueryForm.Filter(
+                ConferenceQueryForm.Field.CITY, ConferenceQueryForm.Operator.EQ, "Tokyo");
+        ConferenceQueryForm.Filter monthFilter = new ConferenceQueryForm.Filter(
+                ConferenceQueryForm.Field.MONTH, ConferenceQueryForm.Operator.EQ, "09");
+        ConferenceQueryForm.Filter normalizedMonthFilter = new ConferenceQueryForm.Filter(
+                ConferenceQueryForm.Field.MONTH, ConferenceQueryForm.Operator.EQ, "9");
+        // The order of the filters and the format of the numbers don't matter.
+        assertEquals(
+                new ConferenceQueryForm().filter(cityFilter).filter(monthFilter)
+                        .getCanonicalForm(),
+                new ConferenceQueryForm().filter(normalizedMonthFilter).filter(cityFilter)
+                        .getCanonicalForm());
+        // The page does.
+        assertNotEquals(
+                new ConferenceQueryForm().filter(cityFilter).getCanonicalForm(),
+                new ConferenceQueryForm().filter(cityFilter).page(5, null).getCanonicalForm());
+    }
+
+    @Test
+    public void testPagination() throws Exception {
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm().page(2, null);
+        CollectionResponse<Conference> page = conferenceApi.queryConferences(conferenceQueryForm);
+        List<Conference> conferences = new ArrayList<>(page.getItems());
+        assertEquals(2, conferences.size());
+        assertEquals(conference1, conferences.get(0));
+        assertEquals(conference3, conferences.get(1));
+        assertNotNull(page.getNextPageToken());
+
+        // The next page starts where the first one ended.
+        conferenceQueryForm = new ConferenceQueryForm().page(2, page.getNextPageToken());
+        page = conferenceApi.queryConferences(conferenceQueryForm);
+        conferences = new ArrayList<>(page.getItems());
+        assertEquals(1, conferences.size());
+        assertEquals(conference2, conferences.get(0));
+        assertNull(page.getNextPageToken());
+
+        // A malformed token is the client's error.
+        conferenceQueryForm = new ConferenceQueryForm().page(2, "not-a-cursor");
+        try {
+            conferenceApi.queryConferences(conferenceQueryForm);
+            fail("A malformed page token should be rejected.");
+        } catch (BadRequestException e) {
+            // Expected.
+        }
+        try {
+            conferenceApi.queryConferenceSummaries(conferenceQueryForm);
+            fail("A malformed page token should be rejected.");
+        } catch (BadRequestException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testSummaryQuery() throws Exception {
+        // A query specifies the city, which is filled from the filter rather than projected.
+        ConferenceQueryForm conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.CITY,
+                        ConferenceQueryForm.Operator.EQ,
+                        "Tokyo"
+                ));
+        List<ConferenceSummary> summaries = new ArrayList<>(
+                conferenceApi.queryConferenceSummaries(conferenceQueryForm).getItems());
+        assertEquals(1, summaries.size());
+        ConferenceSummary summary = summaries.get(0);
+        assertEquals(conference3.getWebsafeKey(), summary.getWebsafeKey());
+        assertEquals(NAME3, summary.getName());
+        assertEquals(CITY3, summary.getCity());
+        assertEquals(conference3.getMonth(), summary.getMonth());
+        assertEquals(CAP3, summary.getMaxAttendees());
+        assertEquals(CAP3, summary.getSeatsAvailable());
+
+        // An inequality query is sorted by the field first.
+        conferenceQueryForm = new ConferenceQueryForm()
+                .filter(new ConferenceQueryForm.Filter(
+                        ConferenceQueryForm.Field.MAX_ATTENDEES,
+                        ConferenceQueryForm.Operator.GT,
+                        "999"
+                ));
+        summaries = new ArrayList<>(
+                conferenceApi.queryConferenceSummaries(conferenceQueryForm).getItems());
+        assertEquals(2, summaries.size());
+        assertEquals(NAME2, summaries.get(0).getName());
+        assertEquals(NAME3, summaries.get(1).getName());
+    }
+
+    @Test
+    public void testGetConferenceAttendees() throws Exception {
+        List<String> userIds = ImmutableList.of("user1", "user2", "user3");
+        for (String userId : userIds) {
+            conferenceApi.registerForConference(
+                    new User(userId + "@example.com", "gmail.com", userId),
+                    conference1.getWebsafeKey(), null);
+        }
+        User organizer = new User("organizer@example.com", "gmail.com", USER_ID);
+        try {
+            conferenceApi.getConferenceAttendees(
+                    new User("user1@example.com", "gmail.com", "user1"),
+                    conference1.getWebsafeKey(), null, null);
+            fail("Only the organizer can list the attendees.");
+        } catch (ForbiddenException e) {
+            // Expected.
+        }
+
+        CollectionResponse<Profile> page = conferenceApi.getConferenceAttendees(
+                organizer, conference1.getWebsafeKey(), null, 2);
+        assertEquals(2, page.getItems().size());
+        assertNotNull(page.getNextPageToken());
+        List<String> attendees = new ArrayList<>();
+        for (Profile profile : page.getItems()) {
+            attendees.add(profile.getUserId());
+        }
+        page = conferenceApi.getConferenceAttendees(
+                organizer, conference1.getWebsafeKey(), page.getNextPageToken(), 2);
+        assertEquals(1, page.getItems().size());
+        assertNull(page.getNextPageToken());
+        attendees.add(page.getItems().iterator().next().getUserId());
+        assertEquals(ImmutableSet.copyOf(userIds), ImmutableSet.copyOf(attendees));
+
+        assertEquals(0, conferenceApi.getConferenceAttendees(
+                organizer, conference2.getWebsafeKey(), null, null).getItems().size());
+
+        try {
+            conferenceApi.getConferenceAttendees(
+                    organizer, conference1.getWebsafeKey(), "not-a-cursor", null);
+            fail("A malformed page token should be rejected.");
+        } catch (BadRequestException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testNearlySoldOutIndex() throws Exception {
+        assertTrue(NearlySoldOutIndex.getConferenceNames().isEmpty());
+        conference1.bookSeats(CAP1 - 2);
+        NearlySoldOutIndex.seatsChanged(conference1, CAP1);
+        ofy().save().entity(conference1).now();
+        assertEquals(ImmutableList.of(NAME1), NearlySoldOutIndex.getConferenceNames());
+
+        // Selling the last seats drops the Conference from the index.
+        conferenceApi.registerForConference(new User("user1@example.com", "gmail.com", "user1"),
+                conference1.getWebsafeKey(), null);
+        assertEquals(ImmutableList.of(NAME1), NearlySoldOutIndex.getConferenceNames());
+        conferenceApi.registerForConference(new User("user2@example.com", "gmail.com", "user2"),
+                conference1.getWebsafeKey(), null);
+        assertTrue(NearlySoldOutIndex.getConferenceNames().isEmpty());
+
+        // A rebuild finds the Conferences saved without their marker.
+        conference1 = ofy().load().key(conference1.getKey()).now();
+        conference1.giveBackSeats(1);
+        ofy().save().entity(conference1).now();
+        assertTrue(NearlySoldOutIndex.getConferenceNames().isEmpty());
+        assertEquals(1, NearlySoldOutIndex.rebuild());
+        assertEquals(ImmutableList.of(NAME1), NearlySoldOutIndex.getConferenceNames());
+        assertEquals(0, NearlySoldOutIndex.rebuild());
+    }
 }
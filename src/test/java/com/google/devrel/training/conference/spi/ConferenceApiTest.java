@@ -3,15 +3,32 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.BadRequestException;
+import com.google.api.server.spi.response.ConflictException;
+import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
-// import com.google.devrel.training.conference.domain.Conference;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.ConferenceSummary;
+import com.google.devrel.training.conference.domain.ConfirmationEmail;
 import com.google.devrel.training.conference.domain.Profile;
-// import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.domain.Registration;
+import com.google.devrel.training.conference.domain.RegistrationResult;
+import com.google.devrel.training.conference.domain.SeatChange;
+import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.form.RegistrationsForm;
+import com.google.devrel.training.conference.service.EntityCache;
+import com.google.devrel.training.conference.service.SeatChanges;
+import com.google.devrel.training.conference.service.SeatCounter;
 import com.googlecode.objectify.Key;
 
 import org.junit.After;
@@ -21,6 +38,8 @@ import org.junit.Test;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -58,6 +77,7 @@ public class ConferenceApiTest {
     @Before
     public void setUp() throws Exception {
         helper.setUp();
+        EntityCache.clear();
         user = new User(EMAIL, "gmail.com", USER_ID);
         conferenceApi = new ConferenceApi();
     }
@@ -128,6 +148,18 @@ public class ConferenceApiTest {
         assertEquals(DISPLAY_NAME, profile.getDisplayName());
     }
 
+    @Test
+    public void testGetProfileAfterUpdate() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        // Start new sessions, so the Profile is served from the per-instance cache.
+        ofy().clear();
+        assertEquals(DISPLAY_NAME, conferenceApi.getProfile(user).getDisplayName());
+        conferenceApi.saveProfile(user, new ProfileForm("New Name", TEE_SHIRT_SIZE));
+        ofy().clear();
+        // The save has evicted the cached Profile.
+        assertEquals("New Name", conferenceApi.getProfile(user).getDisplayName());
+    }
+
     @Test
     public void testUpdateProfile() throws Exception {
         // Save for the first time.
@@ -179,12 +211,12 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
         assertEquals(topics, conference.getTopics());
-        assertEquals(USER_ID, conference.getOrganizerGplusId());
+        assertEquals(USER_ID, conference.getOrganizerUserId());
         assertEquals(CITY, conference.getCity());
         assertEquals(startDate, conference.getStartDate());
         assertEquals(endDate, conference.getEndDate());
@@ -198,6 +230,17 @@ public class ConferenceApiTest {
         assertEquals(TEE_SHIRT_SIZE, profile.getTeeShirtSize());
         String displayName = EMAIL.substring(0, EMAIL.indexOf("@"));
         assertEquals(displayName, profile.getDisplayName());
+        // Check if the organizer's name is stored along with the Conference
+        ofy().clear();
+        conference = ofy().load().key(conference.getKey()).now();
+        assertTrue(conference.hasOrganizerDisplayName());
+        assertEquals(displayName, conference.getOrganizerDisplayName());
+        // Check if the confirmation is saved along with the Conference
+        List<ConfirmationEmail> emails = ofy().load().type(ConfirmationEmail.class)
+                .ancestor(profile).list();
+        assertEquals(1, emails.size());
+        assertEquals(EMAIL, emails.get(0).getEmail());
+        assertEquals(conference.getKey(), emails.get(0).getConferenceKey());
     }
 
     @Test
@@ -211,7 +254,7 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
 
         List<Conference> conferencesCreated = conferenceApi.getConferencesCreated(user);
         assertEquals(1, conferencesCreated.size());
@@ -219,6 +262,21 @@ public class ConferenceApiTest {
                 conferencesCreated.contains(conference));
     }
 
+    @Test
+    public void testGetConferenceSummariesCreated() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+
+        List<ConferenceSummary> summaries = conferenceApi.getConferenceSummariesCreated(user);
+        assertEquals(1, summaries.size());
+        assertEquals(conference.getWebsafeKey(), summaries.get(0).getWebsafeKey());
+        assertEquals(NAME, summaries.get(0).getName());
+        assertEquals(CITY, summaries.get(0).getCity());
+        assertEquals(CAP, summaries.get(0).getMaxAttendees());
+        assertEquals(CAP, summaries.get(0).getSeatsAvailable());
+    }
+
     @Test
     public void testGetConference() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -230,13 +288,13 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         conference = conferenceApi.getConference(conference.getWebsafeKey());
         // Check the return value.
         assertEquals(NAME, conference.getName());
         assertEquals(DESCRIPTION, conference.getDescription());
         assertEquals(topics, conference.getTopics());
-        assertEquals(USER_ID, conference.getOrganizerGplusId());
+        assertEquals(USER_ID, conference.getOrganizerUserId());
         assertEquals(CITY, conference.getCity());
         assertEquals(startDate, conference.getStartDate());
         assertEquals(endDate, conference.getEndDate());
@@ -256,27 +314,272 @@ public class ConferenceApiTest {
         topics.add("Platform");
         ConferenceForm conferenceForm = new ConferenceForm(
                 NAME, DESCRIPTION, topics, CITY, startDate, endDate, CAP);
-        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
         Long conferenceId = conference.getId();
 
         // Registration
         Boolean result = conferenceApi.registerForConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
         conference = conferenceApi.getConference(conference.getWebsafeKey());
-        Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("registerForConference should succeed.", result);
         assertEquals(CAP - 1, conference.getSeatsAvailable());
-        assertTrue("Profile should have the conferenceId in conferenceIdsToAttend.",
-                profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
+        assertNotNull("The Registration should exist.", ofy().load().key(
+                Registration.createKey(user.getUserId(), conference.getWebsafeKey())).now());
+        assertTrue(conferenceApi.isAttending(user, conference.getWebsafeKey()).getResult());
+        assertEquals(ImmutableSet.of(conference.getWebsafeKey()),
+                conferenceApi.getProfile(user).getConferenceKeysToAttend());
 
         // Unregister
         result = conferenceApi.unregisterFromConference(
-                user, conference.getWebsafeKey()).getResult();
+                user, conference.getWebsafeKey(), null).getResult();
         conference = conferenceApi.getConference(conference.getWebsafeKey());
-        profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
         assertTrue("unregisterFromConference should succeed.", result);
         assertEquals(CAP, conference.getSeatsAvailable());
-        assertFalse("Profile shouldn't have the conferenceId in conferenceIdsToAttend.",
-                profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
+        assertNull("The Registration shouldn't exist.", ofy().load().key(
+                Registration.createKey(user.getUserId(), conference.getWebsafeKey())).now());
+        assertFalse(conferenceApi.isAttending(user, conference.getWebsafeKey()).getResult());
+        assertTrue(conferenceApi.getProfile(user).getConferenceKeysToAttend().isEmpty());
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testRegisterWithMalformedKey() throws Exception {
+        conferenceApi.registerForConference(user, "not a key", null);
+    }
+
+    @Test
+    public void testRequestIds() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, "create-1");
+        // A retry returns the same Conference, and sends no other confirmation.
+        assertEquals(conference.getKey(),
+                conferenceApi.createConference(user, conferenceForm, "create-1").getKey());
+        assertEquals(1, ofy().load().type(Conference.class)
+                .ancestor(Key.create(Profile.class, user.getUserId())).count());
+        assertEquals(1, ofy().load().type(ConfirmationEmail.class)
+                .ancestor(Key.create(Profile.class, user.getUserId())).count());
+        String websafeConferenceKey = conference.getWebsafeKey();
+
+        // A retried registration replays its success and books a single seat.
+        assertTrue(conferenceApi.registerForConference(user, websafeConferenceKey, "register-1")
+                .getResult());
+        assertTrue(conferenceApi.registerForConference(user, websafeConferenceKey, "register-1")
+                .getResult());
+        assertEquals(CAP - 1,
+                conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+        try {
+            conferenceApi.registerForConference(user, websafeConferenceKey, "register-2");
+            fail("A new registration request should fail.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+        // A retry that ran alongside the first attempt puts its seat back, and still reports
+        // the success saved along with the registration.
+        Key<SeatChange> retryKey = SeatChanges.book(conference, user.getUserId(), "register-1");
+        assertEquals(SeatChanges.Outcome.REVERTED, SeatChanges.apply(retryKey, null));
+        assertTrue(conferenceApi.registerForConference(user, websafeConferenceKey, "register-1")
+                .getResult());
+        assertEquals(CAP - 1,
+                conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+
+        assertTrue(conferenceApi.unregisterFromConference(
+                user, websafeConferenceKey, "unregister-1").getResult());
+        assertTrue(conferenceApi.unregisterFromConference(
+                user, websafeConferenceKey, "unregister-1").getResult());
+        assertEquals(CAP, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+
+        // A retried batch replays its outcomes instead of finding the user already registered.
+        RegistrationsForm registrationsForm = new RegistrationsForm(ImmutableList.of(
+                new RegistrationsForm.Entry(user.getUserId(), websafeConferenceKey)));
+        assertTrue(conferenceApi.registerForConferences(user, registrationsForm, "batch-1")
+                .get(0).getResult());
+        assertTrue(conferenceApi.registerForConferences(user, registrationsForm, "batch-1")
+                .get(0).getResult());
+        assertEquals(CAP - 1,
+                conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+        // The outcomes are not replayed for another form sent with the same request id.
+        try {
+            conferenceApi.registerForConferences(user, new RegistrationsForm(ImmutableList.of(
+                    new RegistrationsForm.Entry("other", websafeConferenceKey))), "batch-1");
+            fail("Another form with the same request id should be rejected.");
+        } catch (BadRequestException e) {
+            // Expected.
+        }
+
+        // The recovery task of a request that died after giving back its seat saves the outcome.
+        Key<SeatChange> changeKey =
+                SeatChanges.giveBack(conference, user.getUserId(), "unregister-2");
+        assertEquals(SeatChanges.Outcome.APPLIED, SeatChanges.apply(changeKey, null));
+        assertTrue(conferenceApi.unregisterFromConference(
+                user, websafeConferenceKey, "unregister-2").getResult());
+        assertEquals(CAP, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+
+        // A request id ends up in a datastore key, so only short and plain ones are accepted.
+        char[] tooLong = new char[65];
+        Arrays.fill(tooLong, 'a');
+        for (String requestId : ImmutableList.of("", "register 3", "register/3",
+                new String(tooLong))) {
+            try {
+                conferenceApi.registerForConference(user, websafeConferenceKey, requestId);
+                fail("A malformed request id should be rejected.");
+            } catch (BadRequestException e) {
+                // Expected.
+            }
+        }
+        assertEquals(CAP, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+        assertTrue(conferenceApi.registerForConference(user, websafeConferenceKey,
+                "8a2f6c1e-5b7d-4e0a-9c3b-2d1f0e4a6b8c").getResult());
+    }
+
+    @Test
+    public void testSeatChangeRecovery() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeConferenceKey = conference.getWebsafeKey();
+
+        String userId = user.getUserId();
+        conferenceApi.saveProfile(user, new ProfileForm("Renamed", TEE_SHIRT_SIZE));
+        Profile staleProfile = new Profile(userId, DISPLAY_NAME, EMAIL, TEE_SHIRT_SIZE);
+
+        // A request that died after booking the seat leaves its change to the task.
+        Key<SeatChange> changeKey = SeatChanges.book(conference, userId, null);
+        assertEquals(CAP - 1, SeatCounter.sumShards(conference));
+        assertFalse(conferenceApi.isAttending(user, websafeConferenceKey).getResult());
+
+        // The task applies the change once, however many times it runs, and never saves
+        // the Profile its request had loaded over a newer one.
+        assertEquals(SeatChanges.Outcome.APPLIED, SeatChanges.apply(changeKey, staleProfile));
+        assertEquals(SeatChanges.Outcome.FINISHED, SeatChanges.apply(changeKey, null));
+        assertNull(ofy().load().key(changeKey).now());
+        assertTrue(conferenceApi.isAttending(user, websafeConferenceKey).getResult());
+        assertEquals("Renamed", conferenceApi.getProfile(user).getDisplayName());
+
+        // A concurrent duplicate registration gives its seat back.
+        Key<SeatChange> duplicateKey = SeatChanges.book(conference, userId, null);
+        assertEquals(SeatChanges.Outcome.REVERTED, SeatChanges.apply(duplicateKey, null));
+        assertEquals(CAP - 1, SeatCounter.sumShards(conference));
+        assertTrue(conferenceApi.isAttending(user, websafeConferenceKey).getResult());
+
+        // And so does a concurrent duplicate unregistration.
+        assertEquals(SeatChanges.Outcome.APPLIED,
+                SeatChanges.apply(SeatChanges.book(conference, "other", null), null));
+        assertEquals(SeatChanges.Outcome.APPLIED,
+                SeatChanges.apply(SeatChanges.giveBack(conference, userId, null), null));
+        assertEquals(SeatChanges.Outcome.REVERTED,
+                SeatChanges.apply(SeatChanges.giveBack(conference, userId, null), null));
+        assertEquals(CAP - 1, SeatCounter.sumShards(conference));
+        assertFalse(conferenceApi.isAttending(user, websafeConferenceKey).getResult());
+
+        // Once every seat is free, there is no seat left to give back.
+        assertEquals(SeatChanges.Outcome.APPLIED,
+                SeatChanges.apply(SeatChanges.giveBack(conference, "other", null), null));
+        assertNull(SeatChanges.giveBack(conference, userId, null));
+    }
+
+    @Test
+    public void testLegacyRegistration() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeConferenceKey = conference.getWebsafeKey();
+        conferenceApi.registerForConference(user, websafeConferenceKey, null);
+
+        // Turn the registration into one saved before Registration entities existed.
+        ofy().delete().key(Registration.createKey(user.getUserId(), websafeConferenceKey)).now();
+        Entity entity = ofy().save().toEntity(ofy().load().key(
+                Key.create(Profile.class, user.getUserId())).now());
+        entity.setProperty("conferenceKeysToAttend", ImmutableList.of(websafeConferenceKey));
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+        ofy().clear();
+
+        assertTrue(conferenceApi.isAttending(user, websafeConferenceKey).getResult());
+        assertEquals(1, conferenceApi.getConferencesToAttend(user).size());
+        assertTrue(conferenceApi.unregisterFromConference(user, websafeConferenceKey, null)
+                .getResult());
+        ofy().clear();
+        Profile profile = ofy().load().key(Key.create(Profile.class, user.getUserId())).now();
+        assertTrue(profile.getLegacyConferenceKeys().isEmpty());
+        assertFalse(conferenceApi.isAttending(user, websafeConferenceKey).getResult());
+    }
+
+    @Test
+    public void testRegistrationsAcrossSeatShards() throws Exception {
+        // Three shards, the last one holding a single seat.
+        int cap = SeatCounter.SEATS_PER_SHARD * 2 + 1;
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, cap);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        assertEquals(3, conference.getSeatShardCount());
+        String websafeConferenceKey = conference.getWebsafeKey();
+
+        for (int i = 0; i < cap; i++) {
+            User attendee = new User("attendee" + i + "@gmail.com", "gmail.com", "attendee" + i);
+            assertTrue("registerForConference should succeed.", conferenceApi
+                    .registerForConference(attendee, websafeConferenceKey, null).getResult());
+        }
+        conference = conferenceApi.getConference(websafeConferenceKey);
+        assertEquals(0, conference.getSeatsAvailable());
+        assertEquals(0, SeatCounter.sumShards(conference));
+
+        // All the shards are sold out now.
+        try {
+            conferenceApi.registerForConference(user, websafeConferenceKey, null);
+            fail("registerForConference should fail when all the shards are sold out.");
+        } catch (ConflictException e) {
+            // Expected.
+        }
+
+        // Giving back a seat makes it available again.
+        User attendee = new User("attendee0@gmail.com", "gmail.com", "attendee0");
+        assertTrue(conferenceApi.unregisterFromConference(attendee, websafeConferenceKey, null)
+                .getResult());
+        assertEquals(1, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+        assertTrue(conferenceApi.registerForConference(user, websafeConferenceKey, null)
+                .getResult());
+        assertEquals(0, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+
+        // Listings recompute the sums missing from memcache from the shards.
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        Collection<Conference> conferencesToAttend = conferenceApi.getConferencesToAttend(user);
+        assertEquals(1, conferencesToAttend.size());
+        assertEquals(0, conferencesToAttend.iterator().next().getSeatsAvailable());
+    }
+
+    @Test
+    public void testRegisterForConferences() throws Exception {
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, 2);
+        Conference conference = conferenceApi.createConference(user, conferenceForm, null);
+        String websafeConferenceKey = conference.getWebsafeKey();
+        List<RegistrationsForm.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            User attendee = new User("attendee" + i + "@gmail.com", "gmail.com", "attendee" + i);
+            conferenceApi.saveProfile(attendee, new ProfileForm(null, null));
+            entries.add(new RegistrationsForm.Entry(attendee.getUserId(), websafeConferenceKey));
+        }
+        entries.add(new RegistrationsForm.Entry("attendee0", websafeConferenceKey));
+        entries.add(new RegistrationsForm.Entry("nobody", websafeConferenceKey));
+        entries.add(new RegistrationsForm.Entry("attendee0", "malformed"));
+
+        List<RegistrationResult> results =
+                conferenceApi.registerForConferences(user, new RegistrationsForm(entries), null);
+        assertEquals(6, results.size());
+        assertTrue(results.get(0).getResult());
+        assertTrue(results.get(1).getResult());
+        assertEquals("No seats available", results.get(2).getReason());
+        assertEquals("Already registered", results.get(3).getReason());
+        assertEquals("Profile doesn't exist", results.get(4).getReason());
+        assertFalse(results.get(5).getResult());
+
+        assertEquals(0, conferenceApi.getConference(websafeConferenceKey).getSeatsAvailable());
+        assertNotNull(ofy().load().key(
+                Registration.createKey("attendee1", websafeConferenceKey)).now());
+
+        // Only the organizer can register other users.
+        User attendee = new User("attendee2@gmail.com", "gmail.com", "attendee2");
+        results = conferenceApi.registerForConferences(attendee, new RegistrationsForm(
+                entries.subList(0, 1)), null);
+        assertEquals("Not authorized", results.get(0).getReason());
     }
 }